@@ -1,11 +1,11 @@
 package org.testcontainers.couchbase;
 
 import com.couchbase.client.java.Bucket;
-import com.couchbase.client.java.CouchbaseCluster;
 import com.couchbase.client.java.bucket.BucketType;
 import com.couchbase.client.java.cluster.DefaultBucketSettings;
+import com.couchbase.client.java.document.json.JsonArray;
 import com.couchbase.client.java.query.N1qlParams;
-import com.couchbase.client.java.query.N1qlQuery;
+import com.couchbase.client.java.query.N1qlQueryResult;
 import com.couchbase.client.java.query.consistency.ScanConsistency;
 import lombok.Getter;
 import org.junit.After;
@@ -19,23 +19,43 @@ public abstract class AbstractCouchbaseTest {
 
     public static final String DEFAULT_PASSWORD = "password";
 
+    /**
+     * Warm-up iterations of the default bucket, overridden by the couchbase.warmUpIterations system property (0 disables it)
+     */
+    private static final int WARM_UP_ITERATIONS = Integer.getInteger("couchbase.warmUpIterations", 20);
+
     @Getter(lazy = true)
     private final static CouchbaseContainer couchbaseContainer = initCouchbaseContainer();
 
+    /**
+     * Handle owned by the container, closed when it stops
+     */
     @Getter(lazy = true)
-    private final static Bucket bucket = openBucket(TEST_BUCKET, DEFAULT_PASSWORD);
+    private final static Bucket bucket = getCouchbaseContainer().getBucket(TEST_BUCKET);
 
     @After
     public void clear() {
         if (getCouchbaseContainer().isIndex() && getCouchbaseContainer().isQuery() && getCouchbaseContainer().isPrimaryIndex()) {
-            getBucket().query(
-                    N1qlQuery.simple(String.format("DELETE FROM `%s`", getBucket().name()),
-                            N1qlParams.build().consistency(ScanConsistency.STATEMENT_PLUS)));
+            getCouchbaseContainer().getN1qlStatementCache().query(getBucket(),
+                    String.format("DELETE FROM `%s`", getBucket().name()),
+                    JsonArray.empty(),
+                    N1qlParams.build().consistency(ScanConsistency.STATEMENT_PLUS));
         } else {
             getBucket().bucketManager().flush();
         }
     }
 
+    /**
+     * Run a N1QL statement on the test bucket through a cached prepared plan.
+     *
+     * @param statement  the statement, with positional placeholders ($1, $2...)
+     * @param parameters the positional parameters
+     * @return the query result
+     */
+    protected N1qlQueryResult query(String statement, Object... parameters) {
+        return getCouchbaseContainer().query(TEST_BUCKET, statement, parameters);
+    }
+
     private static CouchbaseContainer initCouchbaseContainer() {
         CouchbaseContainer couchbaseContainer = new CouchbaseContainer()
                 .withNewBucket(DefaultBucketSettings.builder()
@@ -45,15 +65,9 @@ public abstract class AbstractCouchbaseTest {
                         .quota(100)
                         .replicas(0)
                         .type(BucketType.COUCHBASE)
-                        .build());
+                        .build())
+                .withWarmUp(WARM_UP_ITERATIONS);
         couchbaseContainer.start();
         return couchbaseContainer;
     }
-
-    private static Bucket openBucket(String bucketName, String password) {
-        CouchbaseCluster cluster = getCouchbaseContainer().getCouchbaseCluster();
-        Bucket bucket = cluster.openBucket(bucketName, password);
-        Runtime.getRuntime().addShutdownHook(new Thread(bucket::close));
-        return bucket;
-    }
 }
@@ -0,0 +1,220 @@
+package org.testcontainers.couchbase;
+
+import com.couchbase.client.core.CouchbaseException;
+import com.couchbase.client.core.message.ResponseStatus;
+import com.couchbase.client.core.message.kv.GetRequest;
+import com.couchbase.client.core.message.kv.GetResponse;
+import com.couchbase.client.core.message.kv.UpsertRequest;
+import com.couchbase.client.core.message.kv.UpsertResponse;
+import com.couchbase.client.deps.io.netty.buffer.Unpooled;
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.document.JsonDocument;
+import com.couchbase.client.java.error.DocumentDoesNotExistException;
+import com.couchbase.client.java.query.N1qlParams;
+import com.couchbase.client.java.query.N1qlQuery;
+import com.couchbase.client.java.query.N1qlQueryResult;
+import com.couchbase.client.java.query.N1qlQueryRow;
+import com.couchbase.client.java.query.consistency.ScanConsistency;
+import lombok.AllArgsConstructor;
+import lombok.Cleanup;
+import rx.Observable;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.String.format;
+
+/**
+ * Compact binary snapshot of a bucket content, used to checkpoint and rollback a bucket between tests.
+ * <p>
+ * The file starts with a magic number and a format version, followed by one length-prefixed record per document :
+ * id, expiry, flags and raw content. Documents of any type (JSON, string, binary...) are read and written as is
+ * through the core KV requests, so their flags come back unchanged. CAS values are not kept, so a snapshot can be
+ * restored at any time.
+ */
+class BucketSnapshot {
+
+    private static final int MAGIC = 0x43425350;
+
+    private static final int VERSION = 1;
+
+    /**
+     * Maximum number of concurrent KV operations while streaming documents
+     */
+    private static final int CONCURRENCY = 64;
+
+    private BucketSnapshot() {
+    }
+
+    /**
+     * Stream all documents of the bucket to the given file.
+     *
+     * @return the number of documents written
+     */
+    static int write(Bucket bucket, Path file) throws IOException {
+        Map<String, Integer> expirations = listDocuments(bucket);
+        @Cleanup
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        int count = 0;
+        Iterable<Record> records = Observable.from(expirations.entrySet())
+                .flatMap(expiration -> get(bucket, expiration.getKey(), expiration.getValue()), CONCURRENCY)
+                .toBlocking()
+                .toIterable();
+        for (Record record : records) {
+            byte[] id = record.id.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(id.length);
+            out.write(id);
+            out.writeInt(record.expiry);
+            out.writeInt(record.flags);
+            out.writeInt(record.content.remaining());
+            out.write(record.content.array(), record.content.arrayOffset() + record.content.position(), record.content.remaining());
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Restore the bucket to the content of the given file : documents missing from the snapshot are removed,
+     * documents with a changed content, flags or expiry, or missing, are upserted, unchanged documents are left untouched.
+     *
+     * @return the number of documents removed or restored
+     */
+    static int rollback(Bucket bucket, Path file) throws IOException {
+        Map<String, Record> records = read(file);
+        Map<String, Integer> expirations = listDocuments(bucket);
+        List<String> diverged = new ArrayList<>(expirations.keySet());
+        diverged.removeAll(records.keySet());
+
+        int removed = Observable.from(diverged)
+                .flatMap(id -> bucket.async().remove(id)
+                        .onErrorResumeNext(e -> e instanceof DocumentDoesNotExistException
+                                ? Observable.<JsonDocument>empty()
+                                : Observable.<JsonDocument>error(e)), CONCURRENCY)
+                .count()
+                .toBlocking()
+                .single();
+        int restored = Observable.from(records.values())
+                .flatMap(record -> get(bucket, record.id, expirations.getOrDefault(record.id, 0))
+                        .map(record::sameAs)
+                        .defaultIfEmpty(false)
+                        .filter(unchanged -> !unchanged)
+                        .flatMap(changed -> upsert(bucket, record)), CONCURRENCY)
+                .count()
+                .toBlocking()
+                .single();
+        return removed + restored;
+    }
+
+    /**
+     * @return the raw document, empty if it does not exist anymore
+     */
+    private static Observable<Record> get(Bucket bucket, String id, int expiry) {
+        return Observable.defer(() -> bucket.core().<GetResponse>send(new GetRequest(id, bucket.name())))
+                .timeout(bucket.environment().kvTimeout(), TimeUnit.MILLISECONDS)
+                .flatMap(response -> {
+                    try {
+                        if (response.status() == ResponseStatus.NOT_EXISTS) {
+                            return Observable.empty();
+                        }
+                        if (!response.status().isSuccess()) {
+                            return Observable.error(new CouchbaseException(format("Unable to get document '%s' of bucket '%s' : %s",
+                                    id, bucket.name(), response.status())));
+                        }
+                        byte[] content = new byte[response.content().readableBytes()];
+                        response.content().readBytes(content);
+                        return Observable.just(new Record(id, expiry, response.flags(), ByteBuffer.wrap(content)));
+                    } finally {
+                        response.content().release();
+                    }
+                });
+    }
+
+    private static Observable<UpsertResponse> upsert(Bucket bucket, Record record) {
+        return Observable.defer(() -> bucket.core().<UpsertResponse>send(new UpsertRequest(record.id,
+                Unpooled.wrappedBuffer(record.content.duplicate()), record.expiry, record.flags, bucket.name())))
+                .timeout(bucket.environment().kvTimeout(), TimeUnit.MILLISECONDS)
+                .flatMap(response -> {
+                    response.content().release();
+                    if (!response.status().isSuccess()) {
+                        return Observable.error(new CouchbaseException(format("Unable to restore document '%s' of bucket '%s' : %s",
+                                record.id, bucket.name(), response.status())));
+                    }
+                    return Observable.just(response);
+                });
+    }
+
+    private static Map<String, Record> read(Path file) throws IOException {
+        @Cleanup
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        if (buffer.remaining() < 8 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw new IOException("Not a bucket snapshot : " + file);
+        }
+        Map<String, Record> records = new LinkedHashMap<>();
+        while (buffer.hasRemaining()) {
+            String id = StandardCharsets.UTF_8.decode(slice(buffer, buffer.getInt())).toString();
+            int expiry = buffer.getInt();
+            int flags = buffer.getInt();
+            records.put(id, new Record(id, expiry, flags, slice(buffer, buffer.getInt())));
+        }
+        return records;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int length) {
+        ByteBuffer slice = buffer.slice();
+        slice.limit(length);
+        buffer.position(buffer.position() + length);
+        return slice;
+    }
+
+    /**
+     * @return the expiry of every document of the bucket, by id
+     */
+    private static Map<String, Integer> listDocuments(Bucket bucket) {
+        N1qlQueryResult result = bucket.query(N1qlQuery.simple(
+                format("SELECT META(b).id AS id, META(b).expiration AS expiration FROM `%s` b", bucket.name()),
+                N1qlParams.build().consistency(ScanConsistency.STATEMENT_PLUS)));
+        if (!result.finalSuccess()) {
+            throw new IllegalStateException(format("Unable to list documents of bucket '%s' : %s", bucket.name(), result.errors()));
+        }
+        Map<String, Integer> expirations = new HashMap<>();
+        for (N1qlQueryRow row : result) {
+            Integer expiration = row.value().getInt("expiration");
+            expirations.put(row.value().getString("id"), expiration == null ? 0 : expiration);
+        }
+        return expirations;
+    }
+
+    @AllArgsConstructor
+    private static class Record {
+        private final String id;
+        /**
+         * Absolute expiry time in seconds, 0 if the document never expires
+         */
+        private final int expiry;
+        /**
+         * Transcoder flags, telling the document type
+         */
+        private final int flags;
+        /**
+         * Raw content, as stored by the server
+         */
+        private final ByteBuffer content;
+
+        boolean sameAs(Record current) {
+            return expiry == current.expiry && flags == current.flags && content.duplicate().equals(current.content);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package org.testcontainers.couchbase;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.BitSet;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+/**
+ * Computations on the cpu and memory limits of a container, translated into Couchbase settings.
+ */
+class ContainerResources {
+
+    /**
+     * Minimum data and index memory quotas accepted by Couchbase, in MB
+     */
+    static final long MIN_MEMORY_QUOTA = 256;
+
+    /**
+     * Lowest cpu quota accepted by docker
+     */
+    static final double MIN_CPUS = 0.01;
+
+    /**
+     * Memory left to the server processes outside of the quotas, in MB
+     */
+    static final long SERVER_MEMORY_OVERHEAD = 128;
+
+    private static final Pattern CPUSET = Pattern.compile("\\d+(-\\d+)?(,\\d+(-\\d+)?)*");
+
+    /**
+     * Highest cpu number accepted in a cpuset
+     */
+    private static final int MAX_CPU = 4095;
+
+    private ContainerResources() {
+    }
+
+    /**
+     * @param cpuset a docker cpuset, like "0-3,6"
+     * @return the number of distinct cpus in the set
+     * @throws IllegalArgumentException if the cpuset is malformed
+     */
+    static int countCpus(String cpuset) {
+        if (cpuset == null || !CPUSET.matcher(cpuset).matches()) {
+            throw new IllegalArgumentException("Invalid cpuset '" + cpuset + "', expected a list of cpus or ranges like \"0-3,6\"");
+        }
+        BitSet cpus = new BitSet();
+        for (String range : cpuset.split(CouchbaseContainer.DELIMITER)) {
+            String[] bounds = range.split("-");
+            int low = parseCpu(cpuset, bounds[0]);
+            int high = bounds.length == 1 ? low : parseCpu(cpuset, bounds[1]);
+            if (low > high) {
+                throw new IllegalArgumentException("Invalid cpuset '" + cpuset + "', range " + range + " is reversed");
+            }
+            cpus.set(low, high + 1);
+        }
+        return cpus.cardinality();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the cpu quota is below {@link #MIN_CPUS}
+     */
+    static void checkCpus(double cpus) {
+        if (!(cpus >= MIN_CPUS)) {
+            throw new IllegalArgumentException("cpus must be at least " + MIN_CPUS + ", was " + cpus);
+        }
+    }
+
+    /**
+     * @param cpus   cpu quota, may be fractional, unlimited if null
+     * @param cpuset docker cpuset, unlimited if null
+     * @return the number of cores usable under both limits, if any is set
+     */
+    static Optional<Integer> cpuLimit(Double cpus, String cpuset) {
+        Optional<Integer> quotaCores = Optional.ofNullable(cpus).map(value -> (int) Math.ceil(value));
+        Optional<Integer> cpusetCores = Optional.ofNullable(cpuset).map(ContainerResources::countCpus);
+        if (quotaCores.isPresent() && cpusetCores.isPresent()) {
+            return Optional.of(Math.min(quotaCores.get(), cpusetCores.get()));
+        }
+        return quotaCores.isPresent() ? quotaCores : cpusetCores;
+    }
+
+    /**
+     * @param indexService whether the index service runs, reserving its own quota
+     * @return the lowest memory limit in MB fitting the minimum quotas and the server overhead
+     */
+    static long minMemoryLimit(boolean indexService) {
+        return (indexService ? 2 : 1) * MIN_MEMORY_QUOTA + SERVER_MEMORY_OVERHEAD;
+    }
+
+    /**
+     * Share the memory limit, minus the server overhead, between the data and index quotas.
+     * Configured quotas are kept if they fit, otherwise they are scaled down proportionally, never below the minimum.
+     *
+     * @param dataQuota    configured data quota in MB
+     * @param indexQuota   configured index quota in MB
+     * @param indexService whether the index service runs, the index quota does not count otherwise
+     * @param memoryLimit  container memory limit in MB, at least {@link #minMemoryLimit(boolean)}
+     * @return the quotas to apply
+     */
+    static MemoryQuotas fitMemoryQuotas(long dataQuota, long indexQuota, boolean indexService, long memoryLimit) {
+        long budget = memoryLimit - SERVER_MEMORY_OVERHEAD;
+        if (!indexService) {
+            return new MemoryQuotas(Math.min(dataQuota, budget), indexQuota);
+        }
+        if (dataQuota + indexQuota <= budget) {
+            return new MemoryQuotas(dataQuota, indexQuota);
+        }
+        long fittingData = Math.max(MIN_MEMORY_QUOTA, budget * dataQuota / (dataQuota + indexQuota));
+        long fittingIndex = Math.max(MIN_MEMORY_QUOTA, budget - fittingData);
+        return new MemoryQuotas(budget - fittingIndex, fittingIndex);
+    }
+
+    private static int parseCpu(String cpuset, String cpu) {
+        try {
+            int value = Integer.parseInt(cpu);
+            if (value <= MAX_CPU) {
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            // Out of int range
+        }
+        throw new IllegalArgumentException("Invalid cpuset '" + cpuset + "', cpu " + cpu + " is above " + MAX_CPU);
+    }
+
+    @Getter
+    @AllArgsConstructor
+    static class MemoryQuotas {
+        /**
+         * Data quota in MB
+         */
+        private final long data;
+        /**
+         * Index quota in MB
+         */
+        private final long index;
+    }
+}
@@ -15,32 +15,48 @@
  */
 package org.testcontainers.couchbase;
 
-import com.couchbase.client.core.config.DefaultPortInfo;
-import com.couchbase.client.core.config.PortInfo;
-import com.couchbase.client.core.service.ServiceType;
-import com.couchbase.client.core.utils.Base64;
+import com.couchbase.client.core.env.NetworkResolution;
+import com.couchbase.client.deps.com.fasterxml.jackson.databind.JsonNode;
 import com.couchbase.client.java.Bucket;
 import com.couchbase.client.java.CouchbaseCluster;
 import com.couchbase.client.java.cluster.*;
 import com.couchbase.client.java.env.CouchbaseEnvironment;
 import com.couchbase.client.java.env.DefaultCouchbaseEnvironment;
+import com.couchbase.client.java.document.RawJsonDocument;
 import com.couchbase.client.java.query.Index;
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.query.N1qlParams;
+import com.couchbase.client.java.query.N1qlQuery;
+import com.couchbase.client.java.query.N1qlQueryResult;
+import com.github.dockerjava.api.model.ContainerNetwork;
+import com.github.dockerjava.api.model.HostConfig;
+import com.github.dockerjava.api.model.Ulimit;
 import lombok.AllArgsConstructor;
-import lombok.Cleanup;
 import lombok.Getter;
 import lombok.SneakyThrows;
 import lombok.experimental.Wither;
 import org.jetbrains.annotations.NotNull;
+import org.testcontainers.containers.ContainerLaunchException;
 import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.containers.Network;
 import org.testcontainers.containers.wait.HttpWaitStrategy;
 import org.testcontainers.shaded.com.google.common.collect.Lists;
+import org.testcontainers.shaded.com.google.common.util.concurrent.ThreadFactoryBuilder;
 
-import java.io.DataOutputStream;
 import java.io.IOException;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /**
  * Based on Laurent Doguin version
@@ -63,9 +79,42 @@ public class CouchbaseContainer<SELF extends CouchbaseContainer<SELF>> extends G
     private static final int SEARCH_SSL_PORT = 18094;
     private static final int ANALYTICS_PORT = 8095;
     private static final int ANALYTICS_SSL_PORT = 18095;
+
+    /**
+     * Alternate address parameter name of each port
+     */
+    private static final Map<Integer, String> ALTERNATE_PORT_NAMES = new HashMap<>();
+
+    static {
+        ALTERNATE_PORT_NAMES.put(CONFIG_PORT, "mgmt");
+        ALTERNATE_PORT_NAMES.put(CONFIG_SSL_PORT, "mgmtSSL");
+        ALTERNATE_PORT_NAMES.put(BINARY_PORT, "kv");
+        ALTERNATE_PORT_NAMES.put(BINARY_SSL_PORT, "kvSSL");
+        ALTERNATE_PORT_NAMES.put(VIEW_PORT, "capi");
+        ALTERNATE_PORT_NAMES.put(VIEW_SSL_PORT, "capiSSL");
+        ALTERNATE_PORT_NAMES.put(QUERY_PORT, "n1ql");
+        ALTERNATE_PORT_NAMES.put(QUERY_SSL_PORT, "n1qlSSL");
+        ALTERNATE_PORT_NAMES.put(SEARCH_PORT, "fts");
+        ALTERNATE_PORT_NAMES.put(SEARCH_SSL_PORT, "ftsSSL");
+        ALTERNATE_PORT_NAMES.put(ANALYTICS_PORT, "cbas");
+        ALTERNATE_PORT_NAMES.put(ANALYTICS_SSL_PORT, "cbasSSL");
+    }
     //</editor-fold>
     public static final String DELIMITER = ",";
 
+    private static final String PRIMARY_INDEX_NAME = "#primary";
+
+    private static final long PRIMARY_INDEX_TIMEOUT = 60;
+
+    private static final String WARM_UP_KEY = "testcontainers::warm-up";
+
+    private static final int CPU_PERIOD = 100_000;
+
+    //<editor-fold desc="Storage paths">
+    private static final String TMPFS_DATA_PATH = "/mnt/couchbase/data";
+    private static final String TMPFS_INDEX_PATH = "/mnt/couchbase/index";
+    //</editor-fold>
+
     @Getter
     @Wither
     private boolean ssl = false;
@@ -114,25 +163,95 @@ public class CouchbaseContainer<SELF extends CouchbaseContainer<SELF>> extends G
     @Wither
     private boolean gamesIMSample = false;
 
-    @Getter(lazy = true)
-    private final CouchbaseEnvironment couchbaseEnvironment = createCouchbaseEnvironment();
+    /**
+     * Size in MB of the tmpfs mounted over data and index directories, storage stays on the container filesystem if 0
+     */
+    @Getter
+    private int tmpfsStorageSize = 0;
 
-    @Getter(lazy = true)
-    private final CouchbaseCluster couchbaseCluster = createCouchbaseCluster();
+    /**
+     * Network alias clients connect to, mapped ports on the docker host are used if null
+     */
+    @Getter
+    private String directNetworkAlias;
 
-    @Getter(lazy = true)
-    private final CouchbaseNodeWaitStrategy couchbaseNodeWaitStrategy = createCouchbaseWaitStrategy();
+    private boolean shapingProxy = false;
 
+    /**
+     * Number of KV and query round-trips run on each declared bucket at the end of the start
+     */
     @Getter
-    private static final Collection<CouchbaseContainer> containers = new HashSet<>();
+    private int warmUpIterations = 0;
+
+    private Map<String, List<String>> warmUpStatements = new LinkedHashMap<>();
+
+    private int preparedStatementCacheSize = N1qlStatementCache.DEFAULT_SIZE;
+
+    //<editor-fold desc="Resources">
+    private Double cpus;
+
+    private Integer cpuShares;
+
+    private String cpuset;
+
+    /**
+     * Memory limit in MB
+     */
+    private Long memoryLimit;
+
+    private Integer nofileUlimit;
+    //</editor-fold>
+
+    //<editor-fold desc="Runtime state, reset when the container stops">
+    private final AtomicReference<N1qlStatementCache> n1qlStatementCache = new AtomicReference<>();
+
+    /**
+     * Traffic shaping proxy clients connect through, only set once started with {@link #withShapingProxy()}
+     */
+    private final AtomicReference<CouchbaseProxy> proxy = new AtomicReference<>();
+
+    private final AtomicReference<CouchbaseEnvironment> couchbaseEnvironment = new AtomicReference<>();
+
+    private final AtomicReference<CouchbaseCluster> couchbaseCluster = new AtomicReference<>();
+
+    /**
+     * Cluster authenticated with the cluster credentials, opening buckets that are not declared with {@link #withNewBucket(BucketSettings)}.
+     * Kept apart from {@link #couchbaseCluster}, a cluster can not mix user and bucket password authentication.
+     */
+    private final AtomicReference<CouchbaseCluster> adminCouchbaseCluster = new AtomicReference<>();
+
+    private final AtomicReference<String> urlBase = new AtomicReference<>();
+
+    private final AtomicReference<CouchbaseRestClient> couchbaseRestClient = new AtomicReference<>();
+    //</editor-fold>
 
     @Getter(lazy = true)
-    private final PortInfo portInfo = createPortInfo();
+    private final CouchbaseNodeWaitStrategy couchbaseNodeWaitStrategy = createCouchbaseWaitStrategy();
 
     private List<BucketSettings> newBuckets = new ArrayList<>();
 
-    @Getter(lazy = true)
-    private final String urlBase = createUrlBase();
+    /**
+     * Bucket handles by name, completed once open so concurrent callers share a single opening
+     */
+    private final Map<String, CompletableFuture<Bucket>> openBuckets = new ConcurrentHashMap<>();
+
+    private final List<String> openingOrder = Collections.synchronizedList(new ArrayList<>());
+
+    private final Map<String, Path> checkpoints = new ConcurrentHashMap<>();
+
+    private final List<CouchbaseMutationTap> mutationTaps = new CopyOnWriteArrayList<>();
+
+    //<editor-fold desc="Start phases">
+    private static final ExecutorService STARTER = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+            .setNameFormat("couchbase-container-starter-%d")
+            .setDaemon(true)
+            .build());
+
+    /**
+     * Phases of the current start, replaced when the container stops
+     */
+    private final AtomicReference<StartPhases> startPhases = new AtomicReference<>(new StartPhases());
+    //</editor-fold>
 
     public CouchbaseContainer() {
         this("couchbase/server:latest");
@@ -140,7 +259,6 @@ public class CouchbaseContainer<SELF extends CouchbaseContainer<SELF>> extends G
 
     public CouchbaseContainer(String containerName) {
         super(containerName);
-        containers.add(this);
     }
 
     @Override
@@ -150,6 +268,16 @@ public class CouchbaseContainer<SELF extends CouchbaseContainer<SELF>> extends G
 
     @Override
     protected void configure() {
+        if (isDirectNetworkAccess() && getNetwork() == null) {
+            throw new IllegalStateException("Direct network access needs the container to be attached to a network");
+        }
+        if (isDirectNetworkAccess() && shapingProxy) {
+            throw new IllegalStateException("Shaping proxy can not be used with direct network access");
+        }
+        if (memoryLimit != null && memoryLimit < ContainerResources.minMemoryLimit(index)) {
+            throw new IllegalStateException(String.format("Memory limit of %d MB is too low, %d MB are needed with %s",
+                    memoryLimit, ContainerResources.minMemoryLimit(index), index ? "the index service" : "the data service only"));
+        }
         // Configurable ports
         if (isSsl()) {
             addExposedPorts(CONFIG_SSL_PORT, VIEW_SSL_PORT, BINARY_SSL_PORT);
@@ -174,6 +302,33 @@ public class CouchbaseContainer<SELF extends CouchbaseContainer<SELF>> extends G
                 addExposedPort(ANALYTICS_SSL_PORT);
             }
         }
+        if (isTmpfsStorage()) {
+            String options = "rw,noexec,nosuid,size=" + tmpfsStorageSize + "m,mode=1777";
+            Map<String, String> tmpfs = new HashMap<>();
+            tmpfs.put(TMPFS_DATA_PATH, options);
+            tmpfs.put(TMPFS_INDEX_PATH, options);
+            withCreateContainerCmdModifier(cmd -> cmd.getHostConfig().withTmpFs(tmpfs));
+        }
+        withCreateContainerCmdModifier(cmd -> {
+            HostConfig hostConfig = cmd.getHostConfig();
+            if (cpus != null) {
+                hostConfig.withCpuPeriod(CPU_PERIOD).withCpuQuota((int) (cpus * CPU_PERIOD));
+            }
+            if (cpuShares != null) {
+                hostConfig.withCpuShares(cpuShares);
+            }
+            if (cpuset != null) {
+                hostConfig.withCpusetCpus(cpuset);
+            }
+            if (memoryLimit != null) {
+                long bytes = memoryLimit * 1024 * 1024;
+                // Same swap limit, so the container never swaps
+                hostConfig.withMemory(bytes).withMemorySwap(bytes);
+            }
+            if (nofileUlimit != null) {
+                hostConfig.withUlimits(new Ulimit[]{new Ulimit("nofile", nofileUlimit, nofileUlimit)});
+            }
+        });
         HttpWaitStrategy waitStrategy = new HttpWaitStrategy().forPath("/ui/index.html#/");
         setWaitStrategy(ssl ? waitStrategy.usingTls() : waitStrategy);
     }
@@ -183,26 +338,161 @@ public class CouchbaseContainer<SELF extends CouchbaseContainer<SELF>> extends G
         return self();
     }
 
-    @SneakyThrows
-    public void init() {
-        initCluster();
-        initServices();
-        initAdminUser();
-        initSampleBuckets();
-        this.getCouchbaseNodeWaitStrategy().waitUntilReady(this);
-        initIndexes();
-        this.getCouchbaseNodeWaitStrategy().waitUntilReady(this);
+    /**
+     * Mount a tmpfs over the node data and index directories, so persistence and indexing never hit the disk.
+     *
+     * @param sizeMb size in MB of each tmpfs mount (data and index)
+     * @return this container
+     */
+    public SELF withTmpfsStorage(int sizeMb) {
+        if (sizeMb <= 0) {
+            throw new IllegalArgumentException("tmpfs storage size must be positive, was " + sizeMb);
+        }
+        this.tmpfsStorageSize = sizeMb;
+        return self();
+    }
+
+    public boolean isTmpfsStorage() {
+        return tmpfsStorageSize > 0;
+    }
+
+    /**
+     * Let clients connect straight to the container through its alias and canonical ports,
+     * for tests running in a container attached to the same network (see {@link #withNetwork(Network)}).
+     * Mapped ports are still used by the container itself to initialize the node.
+     *
+     * @param alias network alias of the container
+     * @return this container
+     */
+    public SELF withDirectNetworkAccess(String alias) {
+        this.directNetworkAlias = alias;
+        return withNetworkAliases(alias);
+    }
+
+    public boolean isDirectNetworkAccess() {
+        return directNetworkAlias != null;
+    }
+
+    /**
+     * Warm up the client and the server at the end of the start, so tests run at steady-state latency :
+     * declared buckets are opened, then KV and query round-trips are run on each of them.
+     *
+     * @param iterations number of round-trips per bucket
+     * @return this container
+     */
+    public SELF withWarmUp(int iterations) {
+        if (iterations < 0) {
+            throw new IllegalArgumentException("Warm-up iterations must not be negative, was " + iterations);
+        }
+        this.warmUpIterations = iterations;
+        return self();
+    }
+
+    /**
+     * Prepare a N1QL statement during warm-up, so its plan is ready before the first test.
+     *
+     * @param bucketName the bucket to run the statement with
+     * @param statement  the statement to prepare
+     * @return this container
+     */
+    public SELF withWarmUpStatement(String bucketName, String statement) {
+        warmUpStatements.computeIfAbsent(bucketName, name -> new ArrayList<>()).add(statement);
+        return self();
+    }
+
+    /**
+     * @param size maximum number of prepared statements kept by {@link #getN1qlStatementCache()}
+     * @return this container
+     */
+    public SELF withPreparedStatementCacheSize(int size) {
+        N1qlStatementCache.checkSize(size);
+        this.preparedStatementCacheSize = size;
+        return self();
+    }
+
+    /**
+     * Limit the container to a number of cpus, through the CFS quota. Also sets the indexer thread count.
+     *
+     * @param cpus number of cpus, may be fractional, at least 0.01
+     * @return this container
+     */
+    public SELF withCpus(double cpus) {
+        ContainerResources.checkCpus(cpus);
+        this.cpus = cpus;
+        return self();
+    }
+
+    /**
+     * @param cpuShares relative cpu weight against other containers (docker default is 1024)
+     * @return this container
+     */
+    public SELF withCpuShares(int cpuShares) {
+        if (cpuShares <= 0) {
+            throw new IllegalArgumentException("cpuShares must be positive, was " + cpuShares);
+        }
+        this.cpuShares = cpuShares;
+        return self();
+    }
+
+    /**
+     * Pin the container to some cpus of the docker host. Also sets the indexer thread count.
+     *
+     * @param cpuset a docker cpuset, like "0-3,6"
+     * @return this container
+     */
+    public SELF withCpuset(String cpuset) {
+        // Fail fast on malformed cpusets
+        ContainerResources.countCpus(cpuset);
+        this.cpuset = cpuset;
+        return self();
+    }
+
+    /**
+     * Limit the container memory, swap disabled. Data and index memory quotas share this limit minus the server overhead,
+     * and are lowered to fit in it. Keep in mind tmpfs storage also counts in this limit.
+     *
+     * @param megabytes the memory limit in MB, at least 384 MB, or 640 MB with the index service
+     * @return this container
+     */
+    public SELF withMemoryLimit(long megabytes) {
+        long minimum = ContainerResources.minMemoryLimit(false);
+        if (megabytes < minimum) {
+            throw new IllegalArgumentException("Memory limit must be at least " + minimum + " MB, was " + megabytes);
+        }
+        this.memoryLimit = megabytes;
+        return self();
+    }
+
+    /**
+     * @param limit maximum number of open files, as both soft and hard limits
+     * @return this container
+     */
+    public SELF withNofileUlimit(int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("nofile limit must be positive, was " + limit);
+        }
+        this.nofileUlimit = limit;
+        return self();
+    }
+
+    /**
+     * Put a local TCP proxy between clients and every exposed port, to shape traffic with latency, bandwidth caps
+     * or connection resets through {@link #getProxy()}. The client environment is wired to the proxy automatically.
+     *
+     * @return this container
+     */
+    public SELF withShapingProxy() {
+        this.shapingProxy = true;
+        return self();
     }
 
-    private void initCluster() throws IOException {
-        logger().debug("Initializing couchbase cluster");
-        String poolURL = "/pools/default";
-        String poolPayload = "memoryQuota=" + URLEncoder.encode(memoryQuota, "UTF-8") + "&indexMemoryQuota=" + URLEncoder.encode(indexMemoryQuota, "UTF-8");
-        callCouchbaseRestAPI(poolURL, poolPayload);
+    @SneakyThrows
+    public void init() {
+        createNodeInitializer().initialize();
     }
 
-    private void initServices() throws IOException {
-        StringJoiner services = new StringJoiner(DELIMITER);
+    private CouchbaseNodeInitializer createNodeInitializer() {
+        List<String> services = new ArrayList<>();
         if (keyValue) {
             services.add("kv");
         }
@@ -218,42 +508,128 @@ public class CouchbaseContainer<SELF extends CouchbaseContainer<SELF>> extends G
         if (analytics) {
             services.add("cbas");
         }
-        logger().debug("Initializing services : {}", services.toString());
-        callCouchbaseRestAPI("/node/controller/setupServices", "services=" + URLEncoder.encode(services.toString(), "UTF-8"));
-    }
-
-    private void initAdminUser() throws IOException {
-        logger().debug("Creating cluster admin user '{}'", clusterUsername);
-        callCouchbaseRestAPI("/settings/web",
-                "username=" + URLEncoder.encode(clusterUsername, "UTF-8") + "&password=" + URLEncoder.encode(clusterPassword, "UTF-8") + "&port=8091");
-    }
-
-    private void initSampleBuckets() throws IOException {
-        StringJoiner sampleBucketPayload = new StringJoiner(DELIMITER);
+        List<String> sampleBuckets = new ArrayList<>();
         if (travelSample) {
-            sampleBucketPayload.add("\"travel-sample\"");
+            sampleBuckets.add("travel-sample");
         }
         if (beerSample) {
-            sampleBucketPayload.add("\"beer-sample\"");
+            sampleBuckets.add("beer-sample");
         }
         if (gamesIMSample) {
-            sampleBucketPayload.add("\"gamesim-sample\"");
+            sampleBuckets.add("gamesim-sample");
+        }
+        CouchbaseNodeInitializer initializer = new CouchbaseNodeInitializer()
+                .withRestClient(getCouchbaseRestClient())
+                .withNodeWait(() -> getCouchbaseNodeWaitStrategy().waitUntilReady(this))
+                .withMemoryQuota(memoryQuota)
+                .withIndexMemoryQuota(indexMemoryQuota)
+                .withServices(services)
+                .withClusterUsername(clusterUsername)
+                .withClusterPassword(clusterPassword)
+                .withSampleBuckets(sampleBuckets)
+                // 0 lets the indexer use all cores of the docker host
+                .withIndexerThreads(getCpuLimit().orElse(0));
+        if (memoryLimit != null) {
+            ContainerResources.MemoryQuotas quotas = ContainerResources.fitMemoryQuotas(
+                    Long.parseLong(memoryQuota), Long.parseLong(indexMemoryQuota), index, memoryLimit);
+            initializer = initializer
+                    .withMemoryQuota(String.valueOf(quotas.getData()))
+                    .withIndexMemoryQuota(String.valueOf(quotas.getIndex()));
+        }
+        if (isTmpfsStorage()) {
+            initializer = initializer.withDataPath(TMPFS_DATA_PATH).withIndexPath(TMPFS_INDEX_PATH);
         }
-        if (sampleBucketPayload.length() != 0) {
-            logger().debug("Initialize sample buckets {}", sampleBucketPayload.toString());
-            callCouchbaseRestAPI("/sampleBuckets/install", "[" + sampleBucketPayload.toString() + "]");
+        if (!isDirectNetworkAccess()) {
+            // Advertise the client host and ports (mapped or proxied), so clients bootstrapping through them resolve them natively
+            Map<String, Integer> alternatePorts = new LinkedHashMap<>();
+            for (Integer port : getExposedPorts()) {
+                String name = ALTERNATE_PORT_NAMES.get(port);
+                if (name != null) {
+                    alternatePorts.put(name, getClientPort(port));
+                }
+            }
+            initializer = initializer
+                    .withNodeHostname(getInternalIpAddress())
+                    .withAlternateHostname(getClientHost())
+                    .withAlternatePorts(alternatePorts);
         }
+        return initializer;
+    }
+
+    /**
+     * @return the IP address of the container on its docker network
+     */
+    private String getInternalIpAddress() {
+        return getContainerInfo().getNetworkSettings().getNetworks().values().stream()
+                .map(ContainerNetwork::getIpAddress)
+                .filter(ipAddress -> ipAddress != null && !ipAddress.isEmpty())
+                .findFirst()
+                .orElseThrow(() -> new ContainerLaunchException("No internal IP address for container " + getContainerId()));
+    }
+
+    /**
+     * @return the number of cores the container can use, if limited by {@link #withCpus(double)} or {@link #withCpuset(String)}
+     */
+    public Optional<Integer> getCpuLimit() {
+        return ContainerResources.cpuLimit(cpus, cpuset);
+    }
+
+    public N1qlStatementCache getN1qlStatementCache() {
+        return lazily(n1qlStatementCache, () -> new N1qlStatementCache(preparedStatementCacheSize));
+    }
+
+    /**
+     * @return the traffic shaping proxy, null if not started with {@link #withShapingProxy()}
+     */
+    public CouchbaseProxy getProxy() {
+        return proxy.get();
+    }
+
+    public CouchbaseEnvironment getCouchbaseEnvironment() {
+        return lazily(couchbaseEnvironment, this::createCouchbaseEnvironment);
     }
 
-    private void initIndexes() throws IOException {
-        logger().debug("Activate memory optimized index");
-        callCouchbaseRestAPI("/settings/indexes", "indexerThreads=0&logLevel=info&maxRollbackPoints=5&storageMode=memory_optimized");
+    public CouchbaseCluster getCouchbaseCluster() {
+        return lazily(couchbaseCluster, this::createCouchbaseCluster);
+    }
+
+    private CouchbaseCluster getAdminCouchbaseCluster() {
+        return lazily(adminCouchbaseCluster, () -> createCouchbaseCluster().authenticate(clusterUsername, clusterPassword));
+    }
+
+    public String getUrlBase() {
+        return lazily(urlBase, this::createUrlBase);
+    }
+
+    public CouchbaseRestClient getCouchbaseRestClient() {
+        return lazily(couchbaseRestClient, this::createCouchbaseRestClient);
+    }
+
+    /**
+     * Create the value of a reference on first access, it is created again after the reference is cleared
+     */
+    private static <T> T lazily(AtomicReference<T> reference, Supplier<T> factory) {
+        T value = reference.get();
+        if (value == null) {
+            synchronized (reference) {
+                value = reference.get();
+                if (value == null) {
+                    value = factory.get();
+                    reference.set(value);
+                }
+            }
+        }
+        return value;
     }
 
     private String createUrlBase() {
         return String.format((ssl ? "https" : "http") + "://%s:%s", getContainerIpAddress(), getMappedPort(CONFIG_PORT));
     }
 
+    private CouchbaseRestClient createCouchbaseRestClient() {
+        return new CouchbaseRestClient(getUrlBase(), clusterUsername, clusterPassword);
+    }
+
     @NotNull
     private CouchbaseNodeWaitStrategy createCouchbaseWaitStrategy() {
         return new CouchbaseNodeWaitStrategy()
@@ -263,10 +639,245 @@ public class CouchbaseContainer<SELF extends CouchbaseContainer<SELF>> extends G
     }
 
     public void createBucket(BucketSettings bucketSetting, boolean primaryIndex) {
-        logger().debug("Creating bucket {}", bucketSetting.name());
         ClusterManager clusterManager = getCouchbaseCluster().clusterManager(clusterUsername, clusterPassword);
+        insertBucket(clusterManager, bucketSetting);
+        this.getCouchbaseNodeWaitStrategy().waitUntilReady(this);
+        if (index) {
+            Bucket bucket = getBucket(bucketSetting.name(), bucketSetting.password());
+            new CouchbaseQueryServiceWaitStrategy(bucket).waitUntilReady(this);
+            if (primaryIndex) {
+                logger().debug("Creating primary index");
+                bucket.query(Index.createPrimaryIndex().on(bucketSetting.name()));
+            }
+        }
+    }
+
+    /**
+     * Create all the given buckets in one batch : buckets and users are inserted concurrently, the node is awaited once,
+     * then primary indexes are created deferred and built together.
+     * Failures are collected and reported for all buckets at once.
+     *
+     * @param bucketSettings the buckets to create
+     * @param primaryIndex   whether to create a primary index on each bucket
+     */
+    public void createBuckets(List<BucketSettings> bucketSettings, boolean primaryIndex) {
+        logger().debug("Creating {} buckets", bucketSettings.size());
+        Map<String, Throwable> failures = new LinkedHashMap<>();
+        ClusterManager clusterManager = getCouchbaseCluster().clusterManager(clusterUsername, clusterPassword);
+        List<BucketSettings> created = forEachBucket(bucketSettings, failures,
+                bucketSetting -> insertBucket(clusterManager, bucketSetting));
+        this.getCouchbaseNodeWaitStrategy().waitUntilReady(this);
+        if (index && !created.isEmpty()) {
+            created = forEachBucket(created, failures, bucketSetting -> {
+                Bucket bucket = getBucket(bucketSetting.name(), bucketSetting.password());
+                new CouchbaseQueryServiceWaitStrategy(bucket).waitUntilReady(this);
+            });
+            if (primaryIndex) {
+                logger().debug("Creating deferred primary indexes");
+                created = forEachBucket(created, failures, bucketSetting ->
+                        getBucket(bucketSetting.name()).bucketManager().createN1qlPrimaryIndex(true, true));
+                // Concurrent builds are rejected by the index service while another one is in progress
+                created = forEachBucketSequentially(created, failures, bucketSetting ->
+                        getBucket(bucketSetting.name()).bucketManager().buildN1qlDeferredIndexes());
+                forEachBucket(created, failures, bucketSetting ->
+                        getBucket(bucketSetting.name()).bucketManager()
+                                .watchN1qlIndexes(Collections.singletonList(PRIMARY_INDEX_NAME), PRIMARY_INDEX_TIMEOUT, TimeUnit.SECONDS));
+            }
+        }
+        if (!failures.isEmpty()) {
+            StringJoiner message = new StringJoiner(DELIMITER + " ", "Unable to create buckets : ", "");
+            failures.forEach((name, failure) -> message.add(name + " (" + failure.getMessage() + ")"));
+            ContainerLaunchException exception = new ContainerLaunchException(message.toString());
+            failures.values().forEach(exception::addSuppressed);
+            throw exception;
+        }
+    }
+
+    /**
+     * Get the open handle of a bucket, opening it on first access.
+     * Handles are shared between the container and tests, and closed when the container stops.
+     *
+     * @param name the bucket name, using the password of the matching {@link #withNewBucket(BucketSettings)} if any,
+     *             the cluster credentials otherwise
+     * @return the open bucket
+     */
+    public Bucket getBucket(String name) {
+        Optional<String> password = newBuckets.stream()
+                .filter(bucketSetting -> bucketSetting.name().equals(name))
+                .map(BucketSettings::password)
+                .findFirst();
+        if (password.isPresent()) {
+            return getBucket(name, password.get());
+        }
+        return getBucket(name, () -> getAdminCouchbaseCluster().openBucket(name));
+    }
+
+    private Bucket getBucket(String name, String password) {
+        return getBucket(name, () -> password == null
+                ? getCouchbaseCluster().openBucket(name)
+                : getCouchbaseCluster().openBucket(name, password));
+    }
+
+    private Bucket getBucket(String name, Supplier<Bucket> opener) {
+        CompletableFuture<Bucket> opening = new CompletableFuture<>();
+        CompletableFuture<Bucket> existing = openBuckets.putIfAbsent(name, opening);
+        if (existing != null) {
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                throw (RuntimeException) e.getCause();
+            }
+        }
+        // Opening blocks until the bucket config is loaded, so it is done outside of the map
+        try {
+            logger().debug("Opening bucket {}", name);
+            Bucket bucket = opener.get();
+            // Recorded before being shared, so a concurrent stop never misses a handle it can see
+            openingOrder.add(name);
+            opening.complete(bucket);
+            return bucket;
+        } catch (RuntimeException e) {
+            // Let the next caller try again
+            openBuckets.remove(name, opening);
+            opening.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private void closeBuckets() {
+        List<String> names;
+        synchronized (openingOrder) {
+            names = new ArrayList<>(openingOrder);
+            openingOrder.clear();
+        }
+        // Close in reverse opening order
+        Collections.reverse(names);
+        for (String name : names) {
+            Bucket bucket = openBuckets.remove(name).join();
+            try {
+                logger().debug("Closing bucket {}", name);
+                bucket.close();
+            } catch (Exception e) {
+                logger().warn("Unable to close bucket '{}'", name, e);
+            }
+        }
+    }
+
+    /**
+     * Run a N1QL statement through a cached prepared plan.
+     *
+     * @param bucketName the bucket to run the statement with
+     * @param statement  the statement, with positional placeholders ($1, $2...)
+     * @param parameters the positional parameters
+     * @return the query result
+     * @see N1qlStatementCache
+     */
+    public N1qlQueryResult query(String bucketName, String statement, Object... parameters) {
+        return getN1qlStatementCache().query(getBucket(bucketName), statement, JsonArray.from(parameters), N1qlParams.build());
+    }
+
+    /**
+     * Save the current content of a bucket, so it can be restored later with {@link #rollback(String)}.
+     * Needs the query and index services, with a primary index on the bucket.
+     *
+     * @param bucketName the bucket name
+     */
+    @SneakyThrows
+    public void checkpoint(String bucketName) {
+        checkQueryable(bucketName);
+        Path snapshot = checkpoints.get(bucketName);
+        if (snapshot == null) {
+            snapshot = Files.createTempFile("couchbase-" + bucketName + "-", ".snapshot");
+            snapshot.toFile().deleteOnExit();
+            checkpoints.put(bucketName, snapshot);
+        }
+        int documents = BucketSnapshot.write(getBucket(bucketName), snapshot);
+        logger().debug("Checkpoint of bucket {} : {} documents", bucketName, documents);
+    }
+
+    /**
+     * Restore a bucket to its last {@link #checkpoint(String)}, only touching documents that diverged.
+     *
+     * @param bucketName the bucket name
+     */
+    @SneakyThrows
+    public void rollback(String bucketName) {
+        checkQueryable(bucketName);
+        Path snapshot = checkpoints.get(bucketName);
+        if (snapshot == null) {
+            throw new IllegalStateException("No checkpoint for bucket '" + bucketName + "'");
+        }
+        int documents = BucketSnapshot.rollback(getBucket(bucketName), snapshot);
+        logger().debug("Rollback of bucket {} : {} documents restored or removed", bucketName, documents);
+    }
+
+    /**
+     * Subscribe to the DCP stream of a bucket, receiving its mutations and deletions from now on.
+     * Needs the dcp-client library on the classpath, mapped and proxied ports are resolved like for the SDK client
+     * through the node alternate address. Taps still open are closed when the container stops.
+     *
+     * @param bucketName the bucket name
+     * @return the connected tap
+     * @throws IllegalStateException if the container uses SSL
+     */
+    public CouchbaseMutationTap tapMutations(String bucketName) {
+        return tapMutations(bucketName, CouchbaseMutationTap.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param bucketName the bucket name
+     * @param capacity   maximum number of buffered events
+     * @return the connected tap
+     * @see #tapMutations(String)
+     */
+    public CouchbaseMutationTap tapMutations(String bucketName, int capacity) {
+        if (ssl) {
+            throw new IllegalStateException("Mutation taps are not supported with SSL");
+        }
+        Optional<BucketSettings> bucketSetting = newBuckets.stream()
+                .filter(settings -> settings.name().equals(bucketName))
+                .findFirst();
+        CouchbaseMutationTap tap = new CouchbaseMutationTap(getClientHost(), getClientPort(CONFIG_PORT), getNetworkResolution(), bucketName,
+                bucketSetting.map(BucketSettings::name).orElse(clusterUsername),
+                bucketSetting.map(BucketSettings::password).orElse(clusterPassword),
+                capacity,
+                mutationTaps::remove);
+        tap.start();
+        mutationTaps.add(tap);
+        return tap;
+    }
+
+    private void closeMutationTaps() {
+        for (CouchbaseMutationTap tap : mutationTaps) {
+            try {
+                tap.close();
+            } catch (Exception e) {
+                logger().warn("Unable to close mutation tap", e);
+            }
+        }
+    }
+
+    private void checkQueryable(String bucketName) {
+        if (!query || !index) {
+            throw new IllegalStateException("Query and index services are needed to checkpoint bucket '" + bucketName + "'");
+        }
+    }
+
+    private void deleteCheckpoints() {
+        for (Path snapshot : checkpoints.values()) {
+            try {
+                Files.deleteIfExists(snapshot);
+            } catch (IOException e) {
+                logger().warn("Unable to delete checkpoint {}", snapshot, e);
+            }
+        }
+        checkpoints.clear();
+    }
+
+    private void insertBucket(ClusterManager clusterManager, BucketSettings bucketSetting) {
+        logger().debug("Creating bucket {}", bucketSetting.name());
         // Insert Bucket
-        BucketSettings bucketSettings = clusterManager.insertBucket(bucketSetting);
+        clusterManager.insertBucket(bucketSetting);
         // Insert Bucket admin user
         logger().debug("Creating bucket admin user '{}'", bucketSetting.name());
         UserSettings userSettings = UserSettings.build()
@@ -279,96 +890,261 @@ public class CouchbaseContainer<SELF extends CouchbaseContainer<SELF>> extends G
         } catch (Exception e) {
             logger().warn("Unable to insert user '" + bucketSetting.name() + "', maybe you are using older version");
         }
-        this.getCouchbaseNodeWaitStrategy().waitUntilReady(this);
-        if (index) {
-            Bucket bucket = getCouchbaseCluster().openBucket(bucketSettings.name(), bucketSettings.password());
-            new CouchbaseQueryServiceWaitStrategy(bucket).waitUntilReady(this);
-            if (primaryIndex) {
-                logger().debug("Creating primary index");
-                bucket.query(Index.createPrimaryIndex().on(bucketSetting.name()));
+    }
+
+    /**
+     * Run the action concurrently for each bucket, recording failures by bucket name.
+     *
+     * @return the buckets for which the action succeeded
+     */
+    private List<BucketSettings> forEachBucket(List<BucketSettings> bucketSettings, Map<String, Throwable> failures,
+                                               Consumer<BucketSettings> action) {
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (BucketSettings bucketSetting : bucketSettings) {
+            futures.add(CompletableFuture.runAsync(() -> action.accept(bucketSetting), STARTER));
+        }
+        List<BucketSettings> succeeded = new ArrayList<>();
+        for (int i = 0; i < bucketSettings.size(); i++) {
+            BucketSettings bucketSetting = bucketSettings.get(i);
+            try {
+                futures.get(i).join();
+                succeeded.add(bucketSetting);
+            } catch (CompletionException e) {
+                logger().warn("Unable to create bucket '{}'", bucketSetting.name(), e.getCause());
+                failures.put(bucketSetting.name(), e.getCause());
+            }
+        }
+        return succeeded;
+    }
+
+    /**
+     * Run the action for each bucket, one after the other, recording failures by bucket name.
+     *
+     * @return the buckets for which the action succeeded
+     */
+    private List<BucketSettings> forEachBucketSequentially(List<BucketSettings> bucketSettings, Map<String, Throwable> failures,
+                                                           Consumer<BucketSettings> action) {
+        List<BucketSettings> succeeded = new ArrayList<>();
+        for (BucketSettings bucketSetting : bucketSettings) {
+            try {
+                action.accept(bucketSetting);
+                succeeded.add(bucketSetting);
+            } catch (RuntimeException e) {
+                logger().warn("Unable to create bucket '{}'", bucketSetting.name(), e);
+                failures.put(bucketSetting.name(), e);
             }
         }
+        return succeeded;
     }
 
     public void callCouchbaseRestAPI(String url, String payload) throws IOException {
-        String fullUrl = getUrlBase() + url;
-        @Cleanup(value = "disconnect")
-        HttpURLConnection httpConnection = (HttpURLConnection) ((new URL(fullUrl).openConnection()));
-        httpConnection.setDoOutput(true);
-        httpConnection.setRequestMethod("POST");
-        httpConnection.setRequestProperty("Content-Type",
-                "application/x-www-form-urlencoded");
-        String encoded = Base64.encode((clusterUsername + ":" + clusterPassword).getBytes("UTF-8"));
-        httpConnection.setRequestProperty("Authorization", "Basic " + encoded);
-        @Cleanup
-        DataOutputStream out = new DataOutputStream(httpConnection.getOutputStream());
-        out.writeBytes(payload);
-        out.flush();
-        httpConnection.getResponseCode();
+        int responseCode = getCouchbaseRestClient().post(url, payload);
+        if (responseCode >= 400) {
+            logger().warn("Couchbase REST API call to '{}' returned HTTP {}", url, responseCode);
+        }
+    }
+
+    public JsonNode getCouchbaseRestAPI(String url) throws IOException {
+        return getCouchbaseRestClient().get(url);
     }
 
+    /**
+     * @throws IllegalStateException if the container is already started, synchronously or with {@link #startAsync()}
+     */
     @Override
     public void start() {
-        super.start();
-        init();
+        StartPhases phases = startPhases.get();
+        phases.begin();
+        runStartPhases(phases);
+    }
+
+    @Override
+    public void stop() {
+        closeMutationTaps();
+        closeBuckets();
+        deleteCheckpoints();
+        disconnect();
+        CouchbaseProxy currentProxy = proxy.getAndSet(null);
+        if (currentProxy != null) {
+            currentProxy.close();
+        }
+        super.stop();
+        // Mapped ports change on the next start, clients are created again
+        couchbaseRestClient.set(null);
+        urlBase.set(null);
+        n1qlStatementCache.set(null);
+        startPhases.set(new StartPhases());
+    }
+
+    private void disconnect() {
+        for (AtomicReference<CouchbaseCluster> cluster : Arrays.asList(adminCouchbaseCluster, couchbaseCluster)) {
+            CouchbaseCluster currentCluster = cluster.getAndSet(null);
+            if (currentCluster != null) {
+                try {
+                    currentCluster.disconnect();
+                } catch (Exception e) {
+                    logger().warn("Unable to disconnect from cluster", e);
+                }
+            }
+        }
+        // Not shut down by the clusters, as it is given to them
+        CouchbaseEnvironment environment = couchbaseEnvironment.getAndSet(null);
+        if (environment != null) {
+            environment.shutdown();
+        }
+    }
+
+    @SneakyThrows
+    private void startProxy() {
+        if (shapingProxy) {
+            CouchbaseProxy newProxy = new CouchbaseProxy(getContainerIpAddress());
+            for (Integer port : getExposedPorts()) {
+                newProxy.listen(port, getMappedPort(port));
+            }
+            proxy.set(newProxy);
+        }
+    }
+
+    /**
+     * Start the container on a dedicated thread, each phase can also be awaited through its own future.
+     *
+     * @return a future completed with this container once all buckets are created and warmed up
+     * @throws IllegalStateException if the container is already started
+     * @see #getContainerStarted()
+     * @see #getClusterInitialized()
+     * @see #getBucketsCreated()
+     * @see #getWarmedUp()
+     */
+    public CompletableFuture<SELF> startAsync() {
+        StartPhases phases = startPhases.get();
+        phases.begin();
+        CompletableFuture.runAsync(() -> runStartPhases(phases), STARTER);
+        return phases.getWarmedUp().thenApply(created -> self());
+    }
+
+    /**
+     * @return a future completed once the docker container is running
+     */
+    public CompletableFuture<Void> getContainerStarted() {
+        return startPhases.get().getContainerStarted();
+    }
+
+    /**
+     * @return a future completed once the node is initialized, services and indexes configured
+     */
+    public CompletableFuture<Void> getClusterInitialized() {
+        return startPhases.get().getClusterInitialized();
+    }
+
+    /**
+     * @return a future completed once all declared buckets are created
+     */
+    public CompletableFuture<Void> getBucketsCreated() {
+        return startPhases.get().getBucketsCreated();
+    }
+
+    /**
+     * @return a future completed once the warm-up round-trips are done, right after bucket creation if no warm-up is configured
+     */
+    public CompletableFuture<Void> getWarmedUp() {
+        return startPhases.get().getWarmedUp();
+    }
+
+    private void runStartPhases(StartPhases phases) {
+        phases.run(phases.getContainerStarted(), () -> {
+            super.start();
+            startProxy();
+        });
+        phases.run(phases.getClusterInitialized(), this::init);
+        phases.run(phases.getBucketsCreated(), this::createBuckets);
+        phases.run(phases.getWarmedUp(), this::warmUp);
+    }
+
+    private void createBuckets() {
         if (!newBuckets.isEmpty()) {
+            createBuckets(newBuckets, primaryIndex);
+        }
+    }
+
+    private void warmUp() {
+        if (warmUpIterations > 0) {
             for (BucketSettings bucketSetting : newBuckets) {
-                createBucket(bucketSetting, primaryIndex);
+                logger().debug("Warming up bucket {}", bucketSetting.name());
+                Bucket bucket = getBucket(bucketSetting.name());
+                N1qlQuery warmUpQuery = index && primaryIndex
+                        ? N1qlQuery.simple(String.format("SELECT META().id FROM `%s` LIMIT 1", bucketSetting.name()))
+                        : N1qlQuery.simple("SELECT 1");
+                for (int i = 0; i < warmUpIterations; i++) {
+                    bucket.upsert(RawJsonDocument.create(WARM_UP_KEY, "{\"iteration\":" + i + "}"));
+                    bucket.get(WARM_UP_KEY, RawJsonDocument.class);
+                    if (query) {
+                        bucket.query(warmUpQuery);
+                    }
+                }
+                bucket.remove(WARM_UP_KEY);
             }
         }
+        warmUpStatements.forEach((bucketName, statements) -> {
+            Bucket bucket = getBucket(bucketName);
+            for (String statement : statements) {
+                logger().debug("Preparing statement {}", statement);
+                try {
+                    getN1qlStatementCache().prepare(bucket, statement);
+                } catch (IllegalStateException e) {
+                    logger().warn(e.getMessage());
+                }
+            }
+        });
     }
 
     private CouchbaseCluster createCouchbaseCluster() {
-        return CouchbaseCluster.create(getCouchbaseEnvironment(), getContainerIpAddress());
+        return CouchbaseCluster.create(getCouchbaseEnvironment(), getClientHost());
     }
 
     private DefaultCouchbaseEnvironment createCouchbaseEnvironment() {
         DefaultCouchbaseEnvironment.Builder builder = DefaultCouchbaseEnvironment.builder()
+                .networkResolution(getNetworkResolution())
                 .sslEnabled(ssl);
         if (isSsl()) {
             builder
-                    .bootstrapCarrierSslPort(getMappedPort(BINARY_SSL_PORT))
-                    .bootstrapHttpSslPort(getMappedPort(CONFIG_SSL_PORT));
+                    .bootstrapCarrierSslPort(getClientPort(BINARY_SSL_PORT))
+                    .bootstrapHttpSslPort(getClientPort(CONFIG_SSL_PORT));
         } else {
             builder
-                    .bootstrapCarrierDirectPort(getMappedPort(BINARY_PORT))
-                    .bootstrapHttpDirectPort(getMappedPort(CONFIG_PORT));
+                    .bootstrapCarrierDirectPort(getClientPort(BINARY_PORT))
+                    .bootstrapHttpDirectPort(getClientPort(CONFIG_PORT));
         }
         return builder.build();
     }
 
-    private PortInfo createPortInfo() {
-        DefaultPortInfo portInfo = new DefaultPortInfo(new HashMap<>(), null, null);
-        try {
-            portInfo.ports().put(ServiceType.VIEW, getMappedPort(VIEW_PORT));
-            portInfo.ports().put(ServiceType.CONFIG, getMappedPort(CONFIG_PORT));
-            portInfo.ports().put(ServiceType.BINARY, getMappedPort(BINARY_PORT));
-            if (isSsl()) {
-                portInfo.sslPorts().put(ServiceType.BINARY, getMappedPort(BINARY_SSL_PORT));
-                portInfo.sslPorts().put(ServiceType.CONFIG, getMappedPort(CONFIG_SSL_PORT));
-                portInfo.sslPorts().put(ServiceType.VIEW, getMappedPort(VIEW_SSL_PORT));
-            }
-            if (isQuery()) {
-                portInfo.ports().put(ServiceType.QUERY, getMappedPort(QUERY_PORT));
-                if (isSsl()) {
-                    portInfo.sslPorts().put(ServiceType.QUERY, getMappedPort(QUERY_SSL_PORT));
-                }
-            }
-            if (isFts()) {
-                portInfo.ports().put(ServiceType.SEARCH, getMappedPort(SEARCH_PORT));
-                if (isSsl()) {
-                    portInfo.sslPorts().put(ServiceType.SEARCH, getMappedPort(SEARCH_SSL_PORT));
-                }
-            }
-            if (isAnalytics()) {
-                portInfo.ports().put(ServiceType.ANALYTICS, getMappedPort(ANALYTICS_PORT));
-                if (isSsl()) {
-                    portInfo.sslPorts().put(ServiceType.ANALYTICS, getMappedPort(ANALYTICS_SSL_PORT));
-                }
-            }
-        } catch (IllegalStateException e) {
-            logger().warn(e.getMessage());
+    /**
+     * @return how clients pick the node addresses, the alternate address advertising mapped or proxied ports is
+     * selected automatically unless in direct network access mode
+     */
+    private NetworkResolution getNetworkResolution() {
+        return isDirectNetworkAccess() ? NetworkResolution.DEFAULT : NetworkResolution.AUTO;
+    }
+
+    /**
+     * @return the host clients connect to, the proxy host with a shaping proxy or the network alias in direct network access mode
+     */
+    public String getClientHost() {
+        CouchbaseProxy currentProxy = proxy.get();
+        if (currentProxy != null) {
+            return currentProxy.getHost();
+        }
+        return isDirectNetworkAccess() ? directNetworkAlias : getContainerIpAddress();
+    }
+
+    /**
+     * @param port the canonical Couchbase port
+     * @return the port clients connect to, the proxy port with a shaping proxy or the canonical port itself in direct network access mode
+     */
+    public int getClientPort(int port) {
+        CouchbaseProxy currentProxy = proxy.get();
+        if (currentProxy != null) {
+            return currentProxy.getProxyPort(port);
         }
-        return portInfo;
+        return isDirectNetworkAccess() ? port : getMappedPort(port);
     }
 }
@@ -0,0 +1,174 @@
+package org.testcontainers.couchbase;
+
+import com.couchbase.client.core.env.NetworkResolution;
+import com.couchbase.client.dcp.Client;
+import com.couchbase.client.dcp.StreamFrom;
+import com.couchbase.client.dcp.StreamTo;
+import com.couchbase.client.dcp.message.DcpDeletionMessage;
+import com.couchbase.client.dcp.message.DcpExpirationMessage;
+import com.couchbase.client.dcp.message.DcpMutationMessage;
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * DCP subscription on a bucket, streaming mutations and deletions as they happen on the server,
+ * so tests can wait for a change without going through the indexer.
+ * <p>
+ * Events are kept in a bounded buffer : when it is full, the oldest events are dropped.
+ */
+public class CouchbaseMutationTap implements AutoCloseable {
+
+    public static final int DEFAULT_CAPACITY = 10_000;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CouchbaseMutationTap.class);
+
+    private final Client client;
+
+    private final BlockingQueue<MutationEvent> events;
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    /**
+     * Called once when the tap is closed, to unregister it
+     */
+    private final Consumer<CouchbaseMutationTap> onClose;
+
+    CouchbaseMutationTap(String host, int httpPort, NetworkResolution networkResolution, String bucketName, String username,
+                         String password, int capacity, Consumer<CouchbaseMutationTap> onClose) {
+        this.onClose = onClose;
+        this.client = Client.configure()
+                .hostnames(host)
+                .bootstrapHttpDirectPort(httpPort)
+                .networkResolution(networkResolution)
+                .bucket(bucketName)
+                .username(username)
+                .password(password)
+                .build();
+        this.events = new ArrayBlockingQueue<>(capacity);
+        client.controlEventHandler((flowController, event) -> event.release());
+        client.dataEventHandler((flowController, event) -> {
+            try {
+                onEvent(event);
+            } finally {
+                event.release();
+            }
+        });
+    }
+
+    /**
+     * Connect and stream changes from now on, the client is disconnected if streaming can not start.
+     */
+    void start() {
+        try {
+            client.connect().await();
+            client.initializeState(StreamFrom.NOW, StreamTo.INFINITY).await();
+            client.startStreaming().await();
+        } catch (RuntimeException e) {
+            try {
+                client.disconnect().await();
+            } catch (RuntimeException disconnectFailure) {
+                e.addSuppressed(disconnectFailure);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return the next event, or empty if none is buffered
+     */
+    public Optional<MutationEvent> poll() {
+        return Optional.ofNullable(events.poll());
+    }
+
+    /**
+     * Consume events until one matches the predicate, non matching events are discarded.
+     *
+     * @param predicate the expected event
+     * @param timeout   maximum time to wait
+     * @return the matching event, or empty if none arrived in time
+     */
+    public Optional<MutationEvent> await(Predicate<MutationEvent> predicate, Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            MutationEvent event = events.poll(remaining, TimeUnit.NANOSECONDS);
+            if (event != null && predicate.test(event)) {
+                return Optional.of(event);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * @return the number of events dropped because the buffer was full
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Disconnect the tap, only the first call has an effect.
+     */
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            try {
+                client.disconnect().await();
+            } finally {
+                onClose.accept(this);
+            }
+        }
+    }
+
+    private void onEvent(ByteBuf event) {
+        if (DcpMutationMessage.is(event)) {
+            publish(new MutationEvent(MutationType.MUTATION, DcpMutationMessage.keyString(event),
+                    DcpMutationMessage.content(event).toString(StandardCharsets.UTF_8)));
+        } else if (DcpDeletionMessage.is(event)) {
+            publish(new MutationEvent(MutationType.DELETION, DcpDeletionMessage.keyString(event), null));
+        } else if (DcpExpirationMessage.is(event)) {
+            publish(new MutationEvent(MutationType.EXPIRATION, DcpExpirationMessage.keyString(event), null));
+        }
+    }
+
+    private void publish(MutationEvent event) {
+        while (!events.offer(event)) {
+            if (events.poll() != null && dropped.incrementAndGet() == 1) {
+                LOGGER.warn("Mutation tap buffer is full, dropping oldest events");
+            }
+        }
+    }
+
+    public enum MutationType {
+        MUTATION, DELETION, EXPIRATION
+    }
+
+    @Getter
+    @ToString
+    @AllArgsConstructor
+    public static class MutationEvent {
+        private final MutationType type;
+        private final String key;
+        /**
+         * Document content, null for deletions and expirations
+         */
+        private final String content;
+    }
+}
@@ -0,0 +1,191 @@
+package org.testcontainers.couchbase;
+
+import com.couchbase.client.deps.com.fasterxml.jackson.databind.JsonNode;
+import lombok.AllArgsConstructor;
+import lombok.NoArgsConstructor;
+import lombok.experimental.Wither;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testcontainers.containers.ContainerLaunchException;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+
+import static lombok.AccessLevel.PRIVATE;
+
+/**
+ * Initialization sequence of a fresh Couchbase node, driven through its admin REST API only,
+ * so it does not depend on a running container.
+ */
+@NoArgsConstructor
+@AllArgsConstructor(access = PRIVATE)
+public class CouchbaseNodeInitializer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CouchbaseNodeInitializer.class);
+
+    @Wither
+    private CouchbaseRestClient restClient;
+
+    /**
+     * Blocks until the node is healthy, called after sample buckets and index settings are applied.
+     */
+    @Wither
+    private Runnable nodeWait = () -> {
+    };
+
+    @Wither
+    private String memoryQuota = "300";
+
+    @Wither
+    private String indexMemoryQuota = "300";
+
+    @Wither
+    private List<String> services = Collections.singletonList("kv");
+
+    @Wither
+    private String clusterUsername = "Administrator";
+
+    @Wither
+    private String clusterPassword = "password";
+
+    /**
+     * Data and index storage paths, the node defaults are kept if null
+     */
+    @Wither
+    private String dataPath;
+
+    @Wither
+    private String indexPath;
+
+    /**
+     * Names of the sample buckets to install
+     */
+    @Wither
+    private List<String> sampleBuckets = Collections.emptyList();
+
+    /**
+     * Indexer thread count, 0 lets the indexer use all cores
+     */
+    @Wither
+    private int indexerThreads = 0;
+
+    /**
+     * Hostname the node is renamed to before alternate addresses are set up, kept as is if null
+     */
+    @Wither
+    private String nodeHostname;
+
+    /**
+     * External alternate address advertised to clients, none if null
+     */
+    @Wither
+    private String alternateHostname;
+
+    /**
+     * External alternate ports advertised to clients, by service name (mgmt, kv...)
+     */
+    @Wither
+    private Map<String, Integer> alternatePorts = Collections.emptyMap();
+
+    public void initialize() throws IOException {
+        renameNode();
+        initStoragePaths();
+        initCluster();
+        initServices();
+        initAdminUser();
+        initAlternateAddresses();
+        checkStoragePaths();
+        initSampleBuckets();
+        nodeWait.run();
+        initIndexes();
+        nodeWait.run();
+    }
+
+    /**
+     * Give the node a hostname different from the one clients bootstrap with,
+     * otherwise clients take it for the internal address and never switch to the external alternate address.
+     */
+    private void renameNode() throws IOException {
+        if (nodeHostname != null) {
+            LOGGER.debug("Renaming node to {}", nodeHostname);
+            post("/node/controller/rename", "hostname=" + URLEncoder.encode(nodeHostname, "UTF-8"));
+        }
+    }
+
+    private void initStoragePaths() throws IOException {
+        if (dataPath != null && indexPath != null) {
+            LOGGER.debug("Moving data storage to {} and index storage to {}", dataPath, indexPath);
+            post("/nodes/self/controller/settings",
+                    "path=" + URLEncoder.encode(dataPath, "UTF-8") + "&index_path=" + URLEncoder.encode(indexPath, "UTF-8"));
+        }
+    }
+
+    private void checkStoragePaths() throws IOException {
+        if (dataPath != null && indexPath != null) {
+            JsonNode storage = restClient.get("/nodes/self").at("/storage/hdd/0");
+            String actualDataPath = storage.path("path").asText();
+            String actualIndexPath = storage.path("index_path").asText();
+            if (!dataPath.equals(actualDataPath) || !indexPath.equals(actualIndexPath)) {
+                throw new ContainerLaunchException(String.format(
+                        "Couchbase node is not using the configured storage (data path: %s, index path: %s)", actualDataPath, actualIndexPath));
+            }
+        }
+    }
+
+    private void initCluster() throws IOException {
+        LOGGER.debug("Initializing couchbase cluster");
+        post("/pools/default", "memoryQuota=" + URLEncoder.encode(memoryQuota, "UTF-8")
+                + "&indexMemoryQuota=" + URLEncoder.encode(indexMemoryQuota, "UTF-8"));
+    }
+
+    private void initServices() throws IOException {
+        String joined = String.join(CouchbaseContainer.DELIMITER, services);
+        LOGGER.debug("Initializing services : {}", joined);
+        post("/node/controller/setupServices", "services=" + URLEncoder.encode(joined, "UTF-8"));
+    }
+
+    private void initAdminUser() throws IOException {
+        LOGGER.debug("Creating cluster admin user '{}'", clusterUsername);
+        post("/settings/web",
+                "username=" + URLEncoder.encode(clusterUsername, "UTF-8") + "&password=" + URLEncoder.encode(clusterPassword, "UTF-8") + "&port=8091");
+    }
+
+    private void initAlternateAddresses() throws IOException {
+        if (alternateHostname == null) {
+            return;
+        }
+        StringJoiner payload = new StringJoiner("&");
+        payload.add("hostname=" + URLEncoder.encode(alternateHostname, "UTF-8"));
+        alternatePorts.forEach((name, port) -> payload.add(name + "=" + port));
+        LOGGER.debug("Setting up alternate addresses : {}", payload.toString());
+        int responseCode = restClient.put("/node/controller/setupAlternateAddresses/external", payload.toString());
+        if (responseCode >= 400) {
+            LOGGER.warn("Unable to set up alternate addresses (HTTP {}), Couchbase Server 6.5+ is needed to use mapped ports", responseCode);
+        }
+    }
+
+    private void initSampleBuckets() throws IOException {
+        if (!sampleBuckets.isEmpty()) {
+            StringJoiner payload = new StringJoiner(CouchbaseContainer.DELIMITER, "[", "]");
+            sampleBuckets.forEach(name -> payload.add("\"" + name + "\""));
+            LOGGER.debug("Initialize sample buckets {}", payload.toString());
+            post("/sampleBuckets/install", payload.toString());
+        }
+    }
+
+    private void initIndexes() throws IOException {
+        LOGGER.debug("Activate memory optimized index");
+        post("/settings/indexes", "indexerThreads=" + indexerThreads + "&logLevel=info&maxRollbackPoints=5&storageMode=memory_optimized");
+    }
+
+    private void post(String url, String payload) throws IOException {
+        int responseCode = restClient.post(url, payload);
+        if (responseCode >= 400) {
+            LOGGER.warn("Couchbase REST API call to '{}' returned HTTP {}", url, responseCode);
+        }
+    }
+}
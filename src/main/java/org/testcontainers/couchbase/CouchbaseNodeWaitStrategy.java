@@ -21,6 +21,9 @@ import lombok.AllArgsConstructor;
 import lombok.NoArgsConstructor;
 import lombok.experimental.Wither;
 import org.rnorth.ducttape.TimeoutException;
+import org.rnorth.ducttape.ratelimits.RateLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.testcontainers.containers.ContainerLaunchException;
 import org.testcontainers.containers.GenericContainer;
 import org.testcontainers.shaded.com.google.common.base.Strings;
@@ -64,6 +67,12 @@ public class CouchbaseNodeWaitStrategy extends GenericContainer.AbstractWaitStra
     @Wither
     private String password;
 
+    /**
+     * Rate limiter used between polls, the shared docker client one if not set.
+     */
+    @Wither
+    private RateLimiter rateLimiter;
+
     @Override
     protected void waitUntilReady() {
         final Integer livenessCheckPort = getLivenessCheckPort();
@@ -72,7 +81,26 @@ public class CouchbaseNodeWaitStrategy extends GenericContainer.AbstractWaitStra
             return;
         }
 
-        final String uri = buildLivenessUri(livenessCheckPort).toString();
+        waitUntilHealthy(buildLivenessUri(livenessCheckPort).toString());
+    }
+
+    @Override
+    protected RateLimiter getRateLimiter() {
+        return rateLimiter != null ? rateLimiter : super.getRateLimiter();
+    }
+
+    @Override
+    protected Logger logger() {
+        // No container is bound when polling a URI directly
+        return container != null ? super.logger() : LoggerFactory.getLogger(CouchbaseNodeWaitStrategy.class);
+    }
+
+    /**
+     * Poll the given pool URI until the node reports itself as healthy.
+     *
+     * @param uri the pool URI
+     */
+    void waitUntilHealthy(String uri) {
         logger().info("Waiting {} seconds for nodes to be healthy", startupTimeout.getSeconds());
 
         // try to connect to the URL
@@ -0,0 +1,323 @@
+package org.testcontainers.couchbase;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testcontainers.shaded.com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local TCP proxy in front of the container ports, shaping the traffic with latency, jitter, bandwidth caps
+ * and connection resets. Shaping can be changed at any time, and applies to data forwarded from then on.
+ */
+public class CouchbaseProxy implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CouchbaseProxy.class);
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * Maximum number of chunks waiting to be forwarded in each direction of a connection. Once reached, the proxy
+     * stops reading, so a slow (shaped) side pushes back on the other one through TCP flow control.
+     */
+    private static final int QUEUE_CAPACITY = 64;
+
+    public enum Direction {
+        /**
+         * From the client to the container
+         */
+        UPSTREAM,
+        /**
+         * From the container to the client
+         */
+        DOWNSTREAM
+    }
+
+    /**
+     * Address the proxy listens on
+     */
+    @Getter
+    private final String host = InetAddress.getLoopbackAddress().getHostAddress();
+
+    private final String targetHost;
+
+    private final Map<Integer, ServerSocket> listeners = new ConcurrentHashMap<>();
+
+    private final Map<Direction, Shaping> shapings = new EnumMap<>(Direction.class);
+
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+
+    private final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+            .setNameFormat("couchbase-proxy-%d")
+            .setDaemon(true)
+            .build());
+
+    private volatile double resetProbability = 0;
+
+    public CouchbaseProxy(String targetHost) {
+        this.targetHost = targetHost;
+        for (Direction direction : Direction.values()) {
+            shapings.put(direction, new Shaping());
+        }
+    }
+
+    /**
+     * Start proxying a container port.
+     *
+     * @param port       the canonical Couchbase port
+     * @param targetPort the port to forward to on the target host
+     * @return the local port of the proxy
+     */
+    public int listen(int port, int targetPort) throws IOException {
+        ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        listeners.put(port, serverSocket);
+        executor.execute(() -> accept(serverSocket, targetPort));
+        LOGGER.debug("Proxying port {} on {}:{}", port, host, serverSocket.getLocalPort());
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * @param port the canonical Couchbase port
+     * @return the local port of the proxy
+     */
+    public int getProxyPort(int port) {
+        ServerSocket serverSocket = listeners.get(port);
+        if (serverSocket == null) {
+            throw new IllegalArgumentException("Port " + port + " is not proxied");
+        }
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Delay data forwarded in one direction.
+     *
+     * @param direction the direction
+     * @param latency   the fixed delay
+     * @param jitter    maximum random deviation around the delay, data is never reordered
+     */
+    public void setLatency(Direction direction, Duration latency, Duration jitter) {
+        Shaping shaping = shapings.get(direction);
+        shaping.latencyNanos = latency.toNanos();
+        shaping.jitterNanos = jitter.toNanos();
+    }
+
+    /**
+     * Cap the throughput of each connection in one direction.
+     *
+     * @param direction      the direction
+     * @param bytesPerSecond the throughput cap, unlimited if 0
+     */
+    public void setBandwidth(Direction direction, long bytesPerSecond) {
+        shapings.get(direction).bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * @param probability probability for a connection to be reset each time data is forwarded, between 0 and 1
+     */
+    public void setResetProbability(double probability) {
+        this.resetProbability = probability;
+    }
+
+    /**
+     * Reset all open connections.
+     */
+    public void resetConnections() {
+        for (Connection connection : connections) {
+            connection.reset();
+        }
+    }
+
+    @Override
+    public void close() {
+        for (ServerSocket serverSocket : listeners.values()) {
+            closeQuietly(serverSocket);
+        }
+        listeners.clear();
+        resetConnections();
+        executor.shutdownNow();
+    }
+
+    private void accept(ServerSocket serverSocket, int targetPort) {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket client = serverSocket.accept();
+                Socket server;
+                try {
+                    server = new Socket(targetHost, targetPort);
+                } catch (IOException e) {
+                    LOGGER.warn("Unable to connect to {}:{}", targetHost, targetPort, e);
+                    closeQuietly(client);
+                    continue;
+                }
+                client.setTcpNoDelay(true);
+                server.setTcpNoDelay(true);
+                Connection connection = new Connection(client, server, new AtomicInteger(2));
+                connections.add(connection);
+                try {
+                    pipe(connection, client, server, Direction.UPSTREAM);
+                    pipe(connection, server, client, Direction.DOWNSTREAM);
+                } catch (RejectedExecutionException e) {
+                    // The proxy is closing
+                    connection.reset();
+                    return;
+                }
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    LOGGER.warn("Unable to accept connection", e);
+                }
+            }
+        }
+    }
+
+    private void pipe(Connection connection, Socket from, Socket to, Direction direction) {
+        BlockingQueue<Chunk> chunks = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        executor.execute(() -> read(connection, from, chunks, shapings.get(direction)));
+        executor.execute(() -> write(connection, to, chunks, shapings.get(direction)));
+    }
+
+    private void read(Connection connection, Socket from, BlockingQueue<Chunk> chunks, Shaping shaping) {
+        long lastDue = 0;
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try {
+            InputStream in = from.getInputStream();
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                // Never schedule a chunk before the previous one, so jitter does not reorder data
+                lastDue = Math.max(lastDue, System.nanoTime() + shaping.delayNanos());
+                if (!enqueue(connection, chunks, new Chunk(Arrays.copyOf(buffer, read), lastDue))) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.trace("Proxied connection closed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        try {
+            enqueue(connection, chunks, Chunk.END);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Wait for room in the queue, giving up if the connection is reset meanwhile.
+     *
+     * @return whether the chunk was queued
+     */
+    private static boolean enqueue(Connection connection, BlockingQueue<Chunk> chunks, Chunk chunk) throws InterruptedException {
+        while (!chunks.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+            if (connection.reset) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void write(Connection connection, Socket to, BlockingQueue<Chunk> chunks, Shaping shaping) {
+        try {
+            OutputStream out = to.getOutputStream();
+            Chunk chunk;
+            while ((chunk = chunks.take()) != Chunk.END) {
+                TimeUnit.NANOSECONDS.sleep(chunk.due - System.nanoTime());
+                if (resetProbability > 0 && ThreadLocalRandom.current().nextDouble() < resetProbability) {
+                    LOGGER.debug("Resetting proxied connection");
+                    connection.reset();
+                    return;
+                }
+                out.write(chunk.data);
+                out.flush();
+                long bytesPerSecond = shaping.bytesPerSecond;
+                if (bytesPerSecond > 0) {
+                    TimeUnit.NANOSECONDS.sleep(TimeUnit.SECONDS.toNanos(chunk.data.length) / bytesPerSecond);
+                }
+            }
+            to.shutdownOutput();
+        } catch (IOException e) {
+            connection.reset();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            connection.reset();
+        } finally {
+            connection.halfClosed();
+        }
+    }
+
+    private static void closeQuietly(AutoCloseable closeable) {
+        try {
+            closeable.close();
+        } catch (Exception e) {
+            LOGGER.trace("Unable to close {}", closeable, e);
+        }
+    }
+
+    private static class Shaping {
+        private volatile long latencyNanos;
+        private volatile long jitterNanos;
+        private volatile long bytesPerSecond;
+
+        long delayNanos() {
+            long jitter = jitterNanos;
+            long delay = latencyNanos + (jitter > 0 ? ThreadLocalRandom.current().nextLong(-jitter, jitter + 1) : 0);
+            return Math.max(0, delay);
+        }
+    }
+
+    @AllArgsConstructor
+    private static class Chunk {
+        private static final Chunk END = new Chunk(new byte[0], 0);
+
+        private final byte[] data;
+        private final long due;
+    }
+
+    @RequiredArgsConstructor
+    private class Connection {
+        private final Socket client;
+        private final Socket server;
+        /**
+         * Number of directions still forwarding data
+         */
+        private final AtomicInteger open;
+
+        private volatile boolean reset;
+
+        void halfClosed() {
+            if (open.decrementAndGet() == 0) {
+                closeQuietly(client);
+                closeQuietly(server);
+                connections.remove(this);
+            }
+        }
+
+        void reset() {
+            reset = true;
+            for (Socket socket : Arrays.asList(client, server)) {
+                try {
+                    // Linger of 0 sends a RST instead of a graceful FIN
+                    socket.setSoLinger(true, 0);
+                } catch (IOException e) {
+                    LOGGER.trace("Unable to set linger", e);
+                }
+                closeQuietly(socket);
+            }
+            connections.remove(this);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package org.testcontainers.couchbase;
+
+import com.couchbase.client.core.utils.Base64;
+import com.couchbase.client.deps.com.fasterxml.jackson.databind.JsonNode;
+import com.couchbase.client.deps.com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.AllArgsConstructor;
+import lombok.Cleanup;
+import lombok.Getter;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Minimal client for the Couchbase admin REST API, used to initialize the node.
+ */
+@AllArgsConstructor
+public class CouchbaseRestClient {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    @Getter
+    private final String urlBase;
+
+    private final String username;
+
+    private final String password;
+
+    /**
+     * Send a form encoded POST request.
+     *
+     * @param url     path of the endpoint, relative to the url base
+     * @param payload form encoded payload
+     * @return the HTTP response code
+     */
+    public int post(String url, String payload) throws IOException {
+        return send("POST", url, payload);
+    }
+
+    /**
+     * Send a form encoded PUT request.
+     *
+     * @param url     path of the endpoint, relative to the url base
+     * @param payload form encoded payload
+     * @return the HTTP response code
+     */
+    public int put(String url, String payload) throws IOException {
+        return send("PUT", url, payload);
+    }
+
+    private int send(String method, String url, String payload) throws IOException {
+        @Cleanup(value = "disconnect")
+        HttpURLConnection httpConnection = openConnection(url);
+        httpConnection.setDoOutput(true);
+        httpConnection.setRequestMethod(method);
+        httpConnection.setRequestProperty("Content-Type",
+                "application/x-www-form-urlencoded");
+        @Cleanup
+        DataOutputStream out = new DataOutputStream(httpConnection.getOutputStream());
+        out.writeBytes(payload);
+        out.flush();
+        return httpConnection.getResponseCode();
+    }
+
+    /**
+     * Send a GET request and parse the JSON response.
+     *
+     * @param url path of the endpoint, relative to the url base
+     * @return the parsed response body
+     */
+    public JsonNode get(String url) throws IOException {
+        @Cleanup(value = "disconnect")
+        HttpURLConnection httpConnection = openConnection(url);
+        httpConnection.setRequestMethod("GET");
+        @Cleanup
+        InputStream in = httpConnection.getInputStream();
+        return OBJECT_MAPPER.readTree(in);
+    }
+
+    private HttpURLConnection openConnection(String url) throws IOException {
+        HttpURLConnection httpConnection = (HttpURLConnection) ((new URL(urlBase + url).openConnection()));
+        String encoded = Base64.encode((username + ":" + password).getBytes("UTF-8"));
+        httpConnection.setRequestProperty("Authorization", "Basic " + encoded);
+        return httpConnection;
+    }
+}
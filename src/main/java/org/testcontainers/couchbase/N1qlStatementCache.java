@@ -0,0 +1,191 @@
+package org.testcontainers.couchbase;
+
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.query.N1qlParams;
+import com.couchbase.client.java.query.N1qlQuery;
+import com.couchbase.client.java.query.N1qlQueryResult;
+import lombok.AllArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+/**
+ * Bounded LRU cache of named prepared N1QL statements, keyed by statement text.
+ * <p>
+ * Statements are prepared once with {@code PREPARE}, then run with {@code EXECUTE} and positional parameters,
+ * so the query service skips parsing and planning. A statement is prepared again when the query service
+ * reports its plan as stale, for instance after an index change. Plans evicted from the cache or found stale
+ * are deleted from the query service too.
+ */
+public class N1qlStatementCache {
+
+    public static final int DEFAULT_SIZE = 128;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(N1qlStatementCache.class);
+
+    /**
+     * Query service error codes of unknown or outdated prepared statements
+     */
+    private static final Set<Integer> STALE_PLAN_CODES = new HashSet<>(Arrays.asList(4040, 4050, 4060, 4070, 4080, 4090, 12016));
+
+    private final Map<String, Prepared> prepareds;
+
+    /**
+     * Plans evicted while holding the cache lock, deleted from the query service once it is released
+     */
+    private final List<Prepared> evicted = new ArrayList<>();
+
+    public N1qlStatementCache(int maxSize) {
+        checkSize(maxSize);
+        this.prepareds = new LinkedHashMap<String, Prepared>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Prepared> eldest) {
+                if (size() > maxSize) {
+                    evicted.add(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @throws IllegalArgumentException if the size is not positive
+     */
+    static void checkSize(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive, was " + maxSize);
+        }
+    }
+
+    /**
+     * Run a statement through its prepared plan, preparing it on first use.
+     *
+     * @param bucket     the bucket to run the statement with
+     * @param statement  the statement, with positional placeholders ($1, $2...)
+     * @param parameters the positional parameters
+     * @param params     the query parameters (scan consistency, timeout...)
+     * @return the query result
+     */
+    public N1qlQueryResult query(Bucket bucket, String statement, JsonArray parameters, N1qlParams params) {
+        String name = prepare(bucket, statement);
+        N1qlQueryResult result = execute(bucket, name, parameters, params);
+        if (isStale(result)) {
+            invalidate(statement, name);
+            result = execute(bucket, prepare(bucket, statement), parameters, params);
+        }
+        return result;
+    }
+
+    /**
+     * Prepare a statement if it is not cached yet.
+     * If another caller cached the same statement meanwhile, its plan is kept and the one just prepared is deleted.
+     *
+     * @param bucket    the bucket to prepare the statement with
+     * @param statement the statement
+     * @return the name of the prepared statement
+     */
+    public String prepare(Bucket bucket, String statement) {
+        synchronized (prepareds) {
+            Prepared prepared = prepareds.get(statement);
+            if (prepared != null) {
+                return prepared.name;
+            }
+        }
+        String name = "tc_" + UUID.randomUUID().toString().replace("-", "");
+        N1qlQueryResult result = bucket.query(N1qlQuery.simple("PREPARE " + name + " FROM " + statement));
+        if (!result.finalSuccess()) {
+            throw new IllegalStateException(String.format("Unable to prepare statement '%s' : %s", statement, result.errors()));
+        }
+        Prepared prepared = new Prepared(bucket, name);
+        List<Prepared> toDelete;
+        synchronized (prepareds) {
+            Prepared existing = prepareds.putIfAbsent(statement, prepared);
+            toDelete = new ArrayList<>(evicted);
+            evicted.clear();
+            if (existing != null) {
+                // Prepared concurrently by another caller, whose plan may already be running
+                toDelete.add(prepared);
+                prepared = existing;
+            }
+        }
+        toDelete.forEach(N1qlStatementCache::delete);
+        return prepared.name;
+    }
+
+    /**
+     * Forget the plan of a statement, and delete it from the query service.
+     *
+     * @param statement the statement
+     */
+    public void invalidate(String statement) {
+        Prepared prepared;
+        synchronized (prepareds) {
+            prepared = prepareds.remove(statement);
+        }
+        if (prepared != null) {
+            delete(prepared);
+        }
+    }
+
+    /**
+     * Forget the given plan of a statement, unless another caller already replaced it.
+     */
+    private void invalidate(String statement, String name) {
+        Prepared prepared;
+        synchronized (prepareds) {
+            prepared = prepareds.get(statement);
+            if (prepared == null || !prepared.name.equals(name)) {
+                return;
+            }
+            prepareds.remove(statement);
+        }
+        delete(prepared);
+    }
+
+    public int size() {
+        synchronized (prepareds) {
+            return prepareds.size();
+        }
+    }
+
+    private static N1qlQueryResult execute(Bucket bucket, String name, JsonArray parameters, N1qlParams params) {
+        return bucket.query(N1qlQuery.parameterized("EXECUTE " + name, parameters, params));
+    }
+
+    /**
+     * Delete a plan from the query service, failures are only logged as the plan is unused from now on.
+     */
+    private static void delete(Prepared prepared) {
+        try {
+            N1qlQueryResult result = prepared.bucket.query(N1qlQuery.parameterized(
+                    "DELETE FROM system:prepareds WHERE name = $1", JsonArray.from(prepared.name)));
+            if (!result.finalSuccess()) {
+                LOGGER.warn("Unable to delete prepared statement {} : {}", prepared.name, result.errors());
+            }
+        } catch (RuntimeException e) {
+            LOGGER.warn("Unable to delete prepared statement {}", prepared.name, e);
+        }
+    }
+
+    private static boolean isStale(N1qlQueryResult result) {
+        if (result.finalSuccess()) {
+            return false;
+        }
+        for (JsonObject error : result.errors()) {
+            if (STALE_PLAN_CODES.contains(error.getInt("code"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @AllArgsConstructor
+    private static class Prepared {
+        private final Bucket bucket;
+        private final String name;
+    }
+}
@@ -0,0 +1,66 @@
+package org.testcontainers.couchbase;
+
+import lombok.Getter;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Futures of the start phases of a container. A new instance is used for each start, so phases never report
+ * the outcome of a previous run, and a second start is rejected until the container is stopped.
+ */
+class StartPhases {
+
+    /**
+     * Completed once the docker container is running
+     */
+    @Getter
+    private final CompletableFuture<Void> containerStarted = new CompletableFuture<>();
+
+    /**
+     * Completed once the node is initialized, services and indexes configured
+     */
+    @Getter
+    private final CompletableFuture<Void> clusterInitialized = new CompletableFuture<>();
+
+    /**
+     * Completed once all declared buckets are created
+     */
+    @Getter
+    private final CompletableFuture<Void> bucketsCreated = new CompletableFuture<>();
+
+    /**
+     * Completed once the warm-up round-trips are done, right after bucket creation if no warm-up is configured
+     */
+    @Getter
+    private final CompletableFuture<Void> warmedUp = new CompletableFuture<>();
+
+    private final AtomicBoolean begun = new AtomicBoolean();
+
+    /**
+     * @throws IllegalStateException if these phases were already begun
+     */
+    void begin() {
+        if (!begun.compareAndSet(false, true)) {
+            throw new IllegalStateException("Container is already started, it must be stopped before starting it again");
+        }
+    }
+
+    /**
+     * Run the action of a phase, then complete it.
+     * On failure, this phase and every following one are failed, completed phases are left untouched.
+     */
+    void run(CompletableFuture<Void> phase, Runnable action) {
+        try {
+            action.run();
+            phase.complete(null);
+        } catch (Throwable e) {
+            // Also catches checked exceptions sneaky thrown by the action, the phases would never complete otherwise
+            for (CompletableFuture<Void> startPhase : Arrays.asList(containerStarted, clusterInitialized, bucketsCreated, warmedUp)) {
+                startPhase.completeExceptionally(e);
+            }
+            throw e;
+        }
+    }
+}
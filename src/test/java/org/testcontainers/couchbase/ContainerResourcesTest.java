@@ -0,0 +1,106 @@
+package org.testcontainers.couchbase;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Optional;
+
+public class ContainerResourcesTest {
+
+    @Test
+    public void should_count_cpus() {
+        Assert.assertEquals(1, ContainerResources.countCpus("3"));
+        Assert.assertEquals(4, ContainerResources.countCpus("0-3"));
+        Assert.assertEquals(5, ContainerResources.countCpus("0-3,6"));
+        Assert.assertEquals(1, ContainerResources.countCpus("2-2"));
+    }
+
+    @Test
+    public void should_count_overlapping_cpus_once() {
+        Assert.assertEquals(4, ContainerResources.countCpus("0-3,2,1-2"));
+    }
+
+    @Test
+    public void should_reject_malformed_cpusets() {
+        for (String cpuset : new String[]{"", "abc", "x,y", "1,", ",1", "1--2", "-1", "1-", "0-3 ,6", "99999999999"}) {
+            try {
+                ContainerResources.countCpus(cpuset);
+                Assert.fail("Cpuset '" + cpuset + "' should be rejected");
+            } catch (IllegalArgumentException e) {
+                Assert.assertTrue(e.getMessage(), e.getMessage().contains(cpuset));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_reject_reversed_cpu_range() {
+        ContainerResources.countCpus("3-1");
+    }
+
+    @Test
+    public void should_reject_cpus_below_docker_minimum() {
+        ContainerResources.checkCpus(0.01);
+        for (double cpus : new double[]{0.009, 0, -1, Double.NaN}) {
+            try {
+                ContainerResources.checkCpus(cpus);
+                Assert.fail(cpus + " cpus should be rejected");
+            } catch (IllegalArgumentException e) {
+                Assert.assertTrue(e.getMessage(), e.getMessage().contains(String.valueOf(cpus)));
+            }
+        }
+    }
+
+    @Test
+    public void should_limit_cpus() {
+        Assert.assertEquals(Optional.empty(), ContainerResources.cpuLimit(null, null));
+        Assert.assertEquals(Optional.of(2), ContainerResources.cpuLimit(1.5, null));
+        Assert.assertEquals(Optional.of(3), ContainerResources.cpuLimit(null, "0-2"));
+        Assert.assertEquals(Optional.of(2), ContainerResources.cpuLimit(1.5, "0-2"));
+        Assert.assertEquals(Optional.of(1), ContainerResources.cpuLimit(4.0, "5"));
+    }
+
+    @Test
+    public void should_need_room_for_minimum_quotas() {
+        Assert.assertEquals(384, ContainerResources.minMemoryLimit(false));
+        Assert.assertEquals(640, ContainerResources.minMemoryLimit(true));
+    }
+
+    @Test
+    public void should_keep_quotas_fitting_in_memory_limit() {
+        ContainerResources.MemoryQuotas quotas = ContainerResources.fitMemoryQuotas(300, 300, true, 2048);
+
+        Assert.assertEquals(300, quotas.getData());
+        Assert.assertEquals(300, quotas.getIndex());
+    }
+
+    @Test
+    public void should_share_memory_limit_between_quotas() {
+        ContainerResources.MemoryQuotas quotas = ContainerResources.fitMemoryQuotas(1024, 512, true, 896);
+
+        // 768 MB left once the server overhead is taken, split 2:1
+        Assert.assertEquals(512, quotas.getData());
+        Assert.assertEquals(256, quotas.getIndex());
+    }
+
+    @Test
+    public void should_never_lower_quotas_below_minimum() {
+        ContainerResources.MemoryQuotas quotas = ContainerResources.fitMemoryQuotas(2048, 300, true, 640);
+
+        Assert.assertEquals(256, quotas.getData());
+        Assert.assertEquals(256, quotas.getIndex());
+
+        quotas = ContainerResources.fitMemoryQuotas(2048, 300, true, 700);
+
+        Assert.assertEquals(316, quotas.getData());
+        Assert.assertEquals(256, quotas.getIndex());
+        Assert.assertTrue(quotas.getData() + quotas.getIndex() <= 700 - ContainerResources.SERVER_MEMORY_OVERHEAD);
+    }
+
+    @Test
+    public void should_give_whole_budget_to_data_without_index_service() {
+        ContainerResources.MemoryQuotas quotas = ContainerResources.fitMemoryQuotas(1024, 300, false, 512);
+
+        Assert.assertEquals(384, quotas.getData());
+        Assert.assertEquals(300, quotas.getIndex());
+    }
+}
@@ -1,14 +1,23 @@
 package org.testcontainers.couchbase;
 
+import com.couchbase.client.java.bucket.BucketType;
+import com.couchbase.client.java.cluster.BucketSettings;
+import com.couchbase.client.java.cluster.ClusterManager;
+import com.couchbase.client.java.cluster.DefaultBucketSettings;
 import com.couchbase.client.java.document.RawJsonDocument;
+import com.couchbase.client.java.document.StringDocument;
 import com.couchbase.client.java.query.N1qlQuery;
 import com.couchbase.client.java.query.N1qlQueryResult;
 import com.couchbase.client.java.query.N1qlQueryRow;
 import com.couchbase.client.java.query.util.IndexInfo;
 import org.junit.Assert;
 import org.junit.Test;
+import org.testcontainers.containers.ContainerLaunchException;
 
+import java.time.Duration;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Optional;
 import java.util.stream.Collectors;
 
 import static java.lang.String.format;
@@ -21,10 +30,18 @@ public class CouchbaseContainerTest extends AbstractCouchbaseTest {
 
     private static final String ID = "toto";
 
+    private static final String OTHER_ID = "tata";
+
+    private static final String NEW_ID = "tutu";
+
     private static final String DOCUMENT = "{\"name\":\"toto\"}";
 
     private static final String INDEX_NAME = "name";
 
+    private static final String BATCH_BUCKET = "batch";
+
+    private static final String OVERSIZED_BUCKET = "oversized";
+
     @Test
     public void should_insert_document() {
         RawJsonDocument expected = RawJsonDocument.create(ID, DOCUMENT);
@@ -45,6 +62,112 @@ public class CouchbaseContainerTest extends AbstractCouchbaseTest {
         Assert.assertEquals(DOCUMENT, n1qlQueryRows.get(0).value().get(TEST_BUCKET).toString());
     }
 
+    @Test
+    public void should_execute_prepared_n1ql() {
+        getBucket().upsert(RawJsonDocument.create(ID, DOCUMENT));
+        String statement = format("SELECT name FROM `%s` USE KEYS $1", TEST_BUCKET);
+
+        query(statement, ID);
+        N1qlQueryResult result = query(statement, ID);
+
+        Assert.assertTrue(result.finalSuccess());
+        Assert.assertEquals(ID, result.allRows().get(0).value().getString("name"));
+    }
+
+    @Test
+    public void should_rollback_to_checkpoint() {
+        getBucket().upsert(RawJsonDocument.create(ID, DOCUMENT));
+        getBucket().upsert(RawJsonDocument.create(OTHER_ID, DOCUMENT));
+        getCouchbaseContainer().checkpoint(TEST_BUCKET);
+
+        getBucket().upsert(RawJsonDocument.create(ID, "{\"name\":\"titi\"}"));
+        getBucket().remove(OTHER_ID);
+        getBucket().upsert(RawJsonDocument.create(NEW_ID, DOCUMENT));
+        getCouchbaseContainer().rollback(TEST_BUCKET);
+
+        Assert.assertEquals(DOCUMENT, getBucket().get(ID, RawJsonDocument.class).content());
+        Assert.assertEquals(DOCUMENT, getBucket().get(OTHER_ID, RawJsonDocument.class).content());
+        Assert.assertFalse(getBucket().exists(NEW_ID));
+    }
+
+    @Test
+    public void should_rollback_expiry_and_non_json_documents() {
+        getBucket().upsert(RawJsonDocument.create(ID, DOCUMENT));
+        getBucket().upsert(StringDocument.create(OTHER_ID, "toto"));
+        getBucket().upsert(RawJsonDocument.create(NEW_ID, DOCUMENT));
+        getCouchbaseContainer().checkpoint(TEST_BUCKET);
+
+        getBucket().touch(ID, 3600);
+        getBucket().upsert(StringDocument.create(OTHER_ID, "titi"));
+        getBucket().upsert(StringDocument.create(NEW_ID, "tutu"));
+        getCouchbaseContainer().rollback(TEST_BUCKET);
+
+        N1qlQueryResult result = query(format("SELECT META().expiration AS expiration FROM `%s` USE KEYS $1", TEST_BUCKET), ID);
+        Assert.assertEquals(0, result.allRows().get(0).value().getInt("expiration").intValue());
+        Assert.assertEquals("toto", getBucket().get(OTHER_ID, StringDocument.class).content());
+        // Flags are restored along the content, the document is JSON again
+        Assert.assertEquals(DOCUMENT, getBucket().get(NEW_ID, RawJsonDocument.class).content());
+    }
+
+    @Test
+    public void should_tap_mutations() throws Exception {
+        try (CouchbaseMutationTap tap = getCouchbaseContainer().tapMutations(TEST_BUCKET)) {
+            getBucket().upsert(RawJsonDocument.create(ID, DOCUMENT));
+
+            Optional<CouchbaseMutationTap.MutationEvent> event = tap.await(e -> e.getKey().equals(ID), Duration.ofSeconds(10));
+
+            Assert.assertTrue(event.isPresent());
+            Assert.assertEquals(CouchbaseMutationTap.MutationType.MUTATION, event.get().getType());
+            Assert.assertEquals(DOCUMENT, event.get().getContent());
+        }
+    }
+
+    @Test
+    public void should_tap_deletions() throws Exception {
+        getBucket().upsert(RawJsonDocument.create(OTHER_ID, DOCUMENT));
+        try (CouchbaseMutationTap tap = getCouchbaseContainer().tapMutations(TEST_BUCKET)) {
+            getBucket().remove(OTHER_ID);
+
+            Optional<CouchbaseMutationTap.MutationEvent> event = tap.await(e -> e.getKey().equals(OTHER_ID), Duration.ofSeconds(10));
+
+            Assert.assertTrue(event.isPresent());
+            Assert.assertEquals(CouchbaseMutationTap.MutationType.DELETION, event.get().getType());
+            Assert.assertNull(event.get().getContent());
+        }
+    }
+
+    @Test
+    public void should_report_failed_buckets_of_a_batch() {
+        // Given a batch with a bucket exceeding the cluster memory quota
+        List<BucketSettings> bucketSettings = Arrays.asList(
+                bucketSettings(BATCH_BUCKET, 100),
+                bucketSettings(OVERSIZED_BUCKET, 100_000));
+        ClusterManager clusterManager = getCouchbaseContainer().getCouchbaseCluster()
+                .clusterManager("Administrator", DEFAULT_PASSWORD);
+
+        try {
+            // When the batch is created with primary indexes
+            try {
+                getCouchbaseContainer().createBuckets(bucketSettings, true);
+                Assert.fail("Oversized bucket creation should fail");
+            } catch (ContainerLaunchException e) {
+                // Then only the failed bucket is reported, the other one is created
+                Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("Unable to create buckets : " + OVERSIZED_BUCKET + " ("));
+                Assert.assertFalse(e.getMessage(), e.getMessage().contains(BATCH_BUCKET));
+                Assert.assertEquals(1, e.getSuppressed().length);
+            }
+            Assert.assertTrue(clusterManager.hasBucket(BATCH_BUCKET));
+            // And its deferred primary index is built
+            List<IndexInfo> primaryIndexes = getCouchbaseContainer().getBucket(BATCH_BUCKET).bucketManager().listN1qlIndexes().stream()
+                    .filter(IndexInfo::isPrimary)
+                    .collect(Collectors.toList());
+            Assert.assertEquals(1, primaryIndexes.size());
+            Assert.assertEquals("online", primaryIndexes.get(0).state());
+        } finally {
+            clusterManager.removeBucket(BATCH_BUCKET);
+        }
+    }
+
     @Test
     public void should_create_index() {
         // Given a primary index request
@@ -62,4 +185,14 @@ public class CouchbaseContainerTest extends AbstractCouchbaseTest {
         Assert.assertEquals(INDEX_NAME, indexInfo.name());
         Assert.assertEquals(format("`%s`", INDEX_NAME), indexInfo.indexKey().get(0));
     }
+
+    private static BucketSettings bucketSettings(String name, int quota) {
+        return DefaultBucketSettings.builder()
+                .name(name)
+                .password(DEFAULT_PASSWORD)
+                .quota(quota)
+                .replicas(0)
+                .type(BucketType.COUCHBASE)
+                .build();
+    }
 }
@@ -0,0 +1,224 @@
+package org.testcontainers.couchbase;
+
+import com.couchbase.client.deps.com.fasterxml.jackson.databind.ObjectMapper;
+import com.couchbase.client.deps.com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-process stand-in for the Couchbase admin REST API endpoints used by {@link CouchbaseContainer},
+ * with scriptable delays and failures, so init and readiness logic can be tested without Docker.
+ */
+public class CouchbaseMockServer implements AutoCloseable {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final HttpServer server;
+
+    @Getter
+    private final List<RecordedRequest> requests = new CopyOnWriteArrayList<>();
+
+    private final Map<String, Duration> delays = new ConcurrentHashMap<>();
+
+    private final Map<String, Deque<Integer>> failures = new ConcurrentHashMap<>();
+
+    private final AtomicInteger unhealthyPolls = new AtomicInteger();
+
+    private volatile String dataPath = "/opt/couchbase/var/lib/couchbase/data";
+
+    private volatile String indexPath = "/opt/couchbase/var/lib/couchbase/data";
+
+    public CouchbaseMockServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    public String getUrlBase() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    /**
+     * Report the node as warming up for the next polls of the pool endpoint.
+     */
+    public CouchbaseMockServer unhealthyFor(int polls) {
+        unhealthyPolls.set(polls);
+        return this;
+    }
+
+    /**
+     * Delay every response of the given endpoint.
+     */
+    public CouchbaseMockServer withDelay(String path, Duration delay) {
+        delays.put(normalize(path), delay);
+        return this;
+    }
+
+    /**
+     * Answer the next calls of the given endpoint with the given HTTP status.
+     */
+    public CouchbaseMockServer failNext(String path, int times, int status) {
+        Deque<Integer> statuses = failures.computeIfAbsent(normalize(path), p -> new ArrayDeque<>());
+        synchronized (statuses) {
+            for (int i = 0; i < times; i++) {
+                statuses.add(status);
+            }
+        }
+        return this;
+    }
+
+    public List<RecordedRequest> requests(String path) {
+        String normalized = normalize(path);
+        List<RecordedRequest> matching = new ArrayList<>();
+        for (RecordedRequest request : requests) {
+            if (request.getPath().equals(normalized)) {
+                matching.add(request);
+            }
+        }
+        return matching;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String path = normalize(exchange.getRequestURI().getPath());
+            String body = read(exchange.getRequestBody());
+            requests.add(new RecordedRequest(exchange.getRequestMethod(), path, body,
+                    exchange.getRequestHeaders().getFirst("Authorization")));
+
+            Duration delay = delays.get(path);
+            if (delay != null) {
+                Thread.sleep(delay.toMillis());
+            }
+            Integer failure = nextFailure(path);
+            if (failure != null) {
+                respond(exchange, failure, "{\"error\":\"injected failure\"}");
+                return;
+            }
+            route(exchange, path, body);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            respond(exchange, 503, "");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void route(HttpExchange exchange, String path, String body) throws IOException {
+        boolean get = "GET".equals(exchange.getRequestMethod());
+        switch (path) {
+            case "/pools/default":
+                if (get) {
+                    String status = unhealthyPolls.getAndDecrement() > 0 ? "warmup" : "healthy";
+                    ObjectNode pool = OBJECT_MAPPER.createObjectNode();
+                    pool.putArray("nodes").addObject().put("status", status);
+                    respond(exchange, 200, pool.toString());
+                } else {
+                    respond(exchange, 200, "");
+                }
+                break;
+            case "/nodes/self":
+                ObjectNode node = OBJECT_MAPPER.createObjectNode();
+                node.putObject("storage").putArray("hdd").addObject()
+                        .put("path", dataPath)
+                        .put("index_path", indexPath);
+                respond(exchange, 200, node.toString());
+                break;
+            case "/nodes/self/controller/settings":
+                Map<String, String> form = parseForm(body);
+                dataPath = form.getOrDefault("path", dataPath);
+                indexPath = form.getOrDefault("index_path", indexPath);
+                respond(exchange, 200, "");
+                break;
+            case "/sampleBuckets/install":
+                respond(exchange, 202, "[]");
+                break;
+            case "/node/controller/rename":
+            case "/node/controller/setupServices":
+            case "/node/controller/setupAlternateAddresses/external":
+            case "/settings/web":
+            case "/settings/indexes":
+            case "/ui/index.html":
+                respond(exchange, 200, "");
+                break;
+            default:
+                respond(exchange, 404, "");
+        }
+    }
+
+    private Integer nextFailure(String path) {
+        Deque<Integer> statuses = failures.get(path);
+        if (statuses == null) {
+            return null;
+        }
+        synchronized (statuses) {
+            return statuses.poll();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        if (bytes.length > 0) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static Map<String, String> parseForm(String body) throws IOException {
+        Map<String, String> form = new HashMap<>();
+        for (String pair : body.split("&")) {
+            int separator = pair.indexOf('=');
+            if (separator > 0) {
+                form.put(URLDecoder.decode(pair.substring(0, separator), "UTF-8"),
+                        URLDecoder.decode(pair.substring(separator + 1), "UTF-8"));
+            }
+        }
+        return form;
+    }
+
+    private static String normalize(String path) {
+        return path.length() > 1 && path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class RecordedRequest {
+        private final String method;
+        private final String path;
+        private final String body;
+        private final String authorization;
+    }
+}
@@ -0,0 +1,140 @@
+package org.testcontainers.couchbase;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.rnorth.ducttape.ratelimits.RateLimiterBuilder;
+import org.testcontainers.containers.ContainerLaunchException;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+public class CouchbaseNodeInitializerTest {
+
+    private static final String POOL_PATH = "/pools/default/";
+
+    private CouchbaseMockServer server;
+
+    private CouchbaseNodeInitializer initializer;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new CouchbaseMockServer();
+        CouchbaseNodeWaitStrategy waitStrategy = new CouchbaseNodeWaitStrategy()
+                .withUsername("Administrator")
+                .withPassword("password")
+                .withRateLimiter(RateLimiterBuilder.newBuilder()
+                        .withRate(100, TimeUnit.SECONDS)
+                        .withConstantThroughput()
+                        .build());
+        waitStrategy.withStartupTimeout(Duration.ofSeconds(2));
+        initializer = new CouchbaseNodeInitializer()
+                .withRestClient(new CouchbaseRestClient(server.getUrlBase(), "Administrator", "password"))
+                .withNodeWait(() -> waitStrategy.waitUntilHealthy(server.getUrlBase() + POOL_PATH))
+                .withServices(Arrays.asList("kv", "n1ql", "index"));
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void should_initialize_node_in_order() throws Exception {
+        server.unhealthyFor(2);
+
+        initializer.initialize();
+
+        List<String> calls = server.getRequests().stream()
+                .map(request -> request.getMethod() + " " + request.getPath())
+                .collect(Collectors.toList());
+        Assert.assertEquals(Arrays.asList(
+                "POST /pools/default",
+                "POST /node/controller/setupServices",
+                "POST /settings/web",
+                "GET /pools/default",
+                "GET /pools/default",
+                "GET /pools/default",
+                "POST /settings/indexes",
+                "GET /pools/default"), calls);
+        Assert.assertEquals("memoryQuota=300&indexMemoryQuota=300", server.requests("/pools/default").get(0).getBody());
+        Assert.assertEquals("services=kv%2Cn1ql%2Cindex", server.requests("/node/controller/setupServices").get(0).getBody());
+        Assert.assertEquals("username=Administrator&password=password&port=8091", server.requests("/settings/web").get(0).getBody());
+    }
+
+    @Test
+    public void should_install_sample_buckets() throws Exception {
+        initializer.withSampleBuckets(Arrays.asList("travel-sample", "beer-sample")).initialize();
+
+        List<CouchbaseMockServer.RecordedRequest> requests = server.requests("/sampleBuckets/install");
+        Assert.assertEquals(1, requests.size());
+        Assert.assertEquals("[\"travel-sample\",\"beer-sample\"]", requests.get(0).getBody());
+    }
+
+    @Test
+    public void should_not_install_sample_buckets_by_default() throws Exception {
+        initializer.initialize();
+
+        Assert.assertTrue(server.requests("/sampleBuckets/install").isEmpty());
+    }
+
+    @Test
+    public void should_configure_indexes() throws Exception {
+        initializer.withIndexerThreads(2).initialize();
+
+        Assert.assertEquals("indexerThreads=2&logLevel=info&maxRollbackPoints=5&storageMode=memory_optimized",
+                server.requests("/settings/indexes").get(0).getBody());
+    }
+
+    @Test
+    public void should_move_storage_paths() throws Exception {
+        initializer.withDataPath("/mnt/couchbase/data").withIndexPath("/mnt/couchbase/index").initialize();
+
+        Assert.assertEquals("path=%2Fmnt%2Fcouchbase%2Fdata&index_path=%2Fmnt%2Fcouchbase%2Findex",
+                server.requests("/nodes/self/controller/settings").get(0).getBody());
+        Assert.assertEquals(1, server.requests("/nodes/self").size());
+    }
+
+    @Test(expected = ContainerLaunchException.class)
+    public void should_fail_when_storage_paths_are_not_applied() throws Exception {
+        server.failNext("/nodes/self/controller/settings", 1, 400);
+
+        initializer.withDataPath("/mnt/couchbase/data").withIndexPath("/mnt/couchbase/index").initialize();
+    }
+
+    @Test
+    public void should_setup_alternate_addresses() throws Exception {
+        Map<String, Integer> ports = new LinkedHashMap<>();
+        ports.put("mgmt", 32768);
+        ports.put("kv", 32769);
+
+        initializer.withAlternateHostname("127.0.0.1").withAlternatePorts(ports).initialize();
+
+        List<CouchbaseMockServer.RecordedRequest> requests = server.requests("/node/controller/setupAlternateAddresses/external");
+        Assert.assertEquals(1, requests.size());
+        Assert.assertEquals("PUT", requests.get(0).getMethod());
+        Assert.assertEquals("hostname=127.0.0.1&mgmt=32768&kv=32769", requests.get(0).getBody());
+    }
+
+    @Test
+    public void should_rename_node_first() throws Exception {
+        initializer.withNodeHostname("172.17.0.2").withAlternateHostname("127.0.0.1").initialize();
+
+        CouchbaseMockServer.RecordedRequest first = server.getRequests().get(0);
+        Assert.assertEquals("/node/controller/rename", first.getPath());
+        Assert.assertEquals("hostname=172.17.0.2", first.getBody());
+    }
+
+    @Test
+    public void should_not_setup_alternate_addresses_without_hostname() throws Exception {
+        initializer.initialize();
+
+        Assert.assertTrue(server.requests("/node/controller/setupAlternateAddresses/external").isEmpty());
+    }
+}
@@ -0,0 +1,64 @@
+package org.testcontainers.couchbase;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.rnorth.ducttape.ratelimits.RateLimiterBuilder;
+import org.testcontainers.containers.ContainerLaunchException;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+public class CouchbaseNodeWaitStrategyTest {
+
+    private static final String POOL_PATH = "/pools/default/";
+
+    private CouchbaseMockServer server;
+
+    private CouchbaseNodeWaitStrategy waitStrategy;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new CouchbaseMockServer();
+        waitStrategy = new CouchbaseNodeWaitStrategy()
+                .withUsername("Administrator")
+                .withPassword("password")
+                .withRateLimiter(RateLimiterBuilder.newBuilder()
+                        .withRate(100, TimeUnit.SECONDS)
+                        .withConstantThroughput()
+                        .build());
+        waitStrategy.withStartupTimeout(Duration.ofSeconds(2));
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void should_wait_until_node_is_healthy() {
+        server.unhealthyFor(3);
+
+        waitStrategy.waitUntilHealthy(server.getUrlBase() + POOL_PATH);
+
+        Assert.assertEquals(4, server.requests(POOL_PATH).size());
+        Assert.assertNotNull(server.requests(POOL_PATH).get(0).getAuthorization());
+    }
+
+    @Test
+    public void should_retry_on_server_errors() {
+        server.failNext(POOL_PATH, 2, 500);
+
+        waitStrategy.waitUntilHealthy(server.getUrlBase() + POOL_PATH);
+
+        Assert.assertEquals(3, server.requests(POOL_PATH).size());
+    }
+
+    @Test(expected = ContainerLaunchException.class)
+    public void should_timeout_when_node_never_becomes_healthy() {
+        server.unhealthyFor(Integer.MAX_VALUE);
+
+        waitStrategy.waitUntilHealthy(server.getUrlBase() + POOL_PATH);
+    }
+}
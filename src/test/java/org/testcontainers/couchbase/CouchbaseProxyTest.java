@@ -0,0 +1,166 @@
+package org.testcontainers.couchbase;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class CouchbaseProxyTest {
+
+    private static final int PORT = 8091;
+
+    private static final byte[] MESSAGE = "hello".getBytes();
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    private ServerSocket echoServer;
+
+    private CouchbaseProxy proxy;
+
+    @Before
+    public void setUp() throws Exception {
+        echoServer = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        executor.execute(this::echo);
+        proxy = new CouchbaseProxy(InetAddress.getLoopbackAddress().getHostAddress());
+        proxy.listen(PORT, echoServer.getLocalPort());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        proxy.close();
+        echoServer.close();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void should_forward_data() throws Exception {
+        try (Socket socket = connect()) {
+            Assert.assertArrayEquals(MESSAGE, roundTrip(socket, MESSAGE));
+        }
+    }
+
+    @Test
+    public void should_delay_data() throws Exception {
+        proxy.setLatency(CouchbaseProxy.Direction.UPSTREAM, Duration.ofMillis(200), Duration.ZERO);
+
+        try (Socket socket = connect()) {
+            long start = System.nanoTime();
+            roundTrip(socket, MESSAGE);
+
+            Assert.assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() >= 200);
+        }
+    }
+
+    @Test
+    public void should_cap_bandwidth() throws Exception {
+        proxy.setBandwidth(CouchbaseProxy.Direction.DOWNSTREAM, 64 * 1024);
+
+        try (Socket socket = connect()) {
+            long start = System.nanoTime();
+            roundTrip(socket, new byte[64 * 1024]);
+
+            // At most the last chunk is received before its throttling pause
+            Assert.assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() >= 500);
+        }
+    }
+
+    @Test
+    public void should_keep_data_in_order_with_jitter() throws Exception {
+        proxy.setLatency(CouchbaseProxy.Direction.UPSTREAM, Duration.ofMillis(10), Duration.ofMillis(10));
+
+        try (Socket socket = connect()) {
+            OutputStream out = socket.getOutputStream();
+            byte[] expected = new byte[100];
+            for (int i = 0; i < expected.length; i++) {
+                expected[i] = (byte) i;
+                out.write(i);
+                out.flush();
+            }
+            byte[] received = new byte[expected.length];
+            new DataInputStream(socket.getInputStream()).readFully(received);
+
+            Assert.assertArrayEquals(expected, received);
+        }
+    }
+
+    @Test
+    public void should_reset_connections() throws Exception {
+        try (Socket socket = connect()) {
+            roundTrip(socket, MESSAGE);
+
+            proxy.resetConnections();
+
+            assertClosed(socket);
+        }
+    }
+
+    @Test
+    public void should_reset_connections_randomly() throws Exception {
+        proxy.setResetProbability(1);
+
+        try (Socket socket = connect()) {
+            socket.getOutputStream().write(MESSAGE);
+            socket.getOutputStream().flush();
+
+            assertClosed(socket);
+        }
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket(proxy.getHost(), proxy.getProxyPort(PORT));
+        socket.setSoTimeout(5000);
+        return socket;
+    }
+
+    private static byte[] roundTrip(Socket socket, byte[] data) throws IOException {
+        socket.getOutputStream().write(data);
+        socket.getOutputStream().flush();
+        byte[] received = new byte[data.length];
+        new DataInputStream(socket.getInputStream()).readFully(received);
+        return received;
+    }
+
+    private static void assertClosed(Socket socket) throws IOException {
+        try {
+            Assert.assertEquals(-1, socket.getInputStream().read());
+        } catch (SocketException e) {
+            // Connection reset, a read timeout still fails the test
+        }
+    }
+
+    private void echo() {
+        while (!echoServer.isClosed()) {
+            try {
+                Socket socket = echoServer.accept();
+                executor.execute(() -> {
+                    try (Socket connection = socket) {
+                        InputStream in = connection.getInputStream();
+                        OutputStream out = connection.getOutputStream();
+                        byte[] buffer = new byte[4096];
+                        int read;
+                        while ((read = in.read(buffer)) != -1) {
+                            out.write(buffer, 0, read);
+                            out.flush();
+                        }
+                    } catch (IOException e) {
+                        // Connection closed by the proxy
+                    }
+                });
+            } catch (IOException e) {
+                // Server closed
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package org.testcontainers.couchbase;
+
+import com.couchbase.client.deps.com.fasterxml.jackson.databind.JsonNode;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Base64;
+
+public class CouchbaseRestClientTest {
+
+    private CouchbaseMockServer server;
+
+    private CouchbaseRestClient restClient;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new CouchbaseMockServer();
+        restClient = new CouchbaseRestClient(server.getUrlBase(), "Administrator", "password");
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void should_post_form_with_basic_auth() throws Exception {
+        int responseCode = restClient.post("/pools/default", "memoryQuota=300&indexMemoryQuota=300");
+
+        Assert.assertEquals(200, responseCode);
+        CouchbaseMockServer.RecordedRequest request = server.requests("/pools/default").get(0);
+        Assert.assertEquals("POST", request.getMethod());
+        Assert.assertEquals("memoryQuota=300&indexMemoryQuota=300", request.getBody());
+        Assert.assertEquals("Basic " + Base64.getEncoder().encodeToString("Administrator:password".getBytes("UTF-8")),
+                request.getAuthorization());
+    }
+
+    @Test
+    public void should_put_form() throws Exception {
+        int responseCode = restClient.put("/node/controller/setupAlternateAddresses/external", "hostname=localhost&mgmt=32768");
+
+        Assert.assertEquals(200, responseCode);
+        CouchbaseMockServer.RecordedRequest request = server.requests("/node/controller/setupAlternateAddresses/external").get(0);
+        Assert.assertEquals("PUT", request.getMethod());
+        Assert.assertEquals("hostname=localhost&mgmt=32768", request.getBody());
+    }
+
+    @Test
+    public void should_read_json_response() throws Exception {
+        restClient.post("/nodes/self/controller/settings", "path=%2Fmnt%2Fdata&index_path=%2Fmnt%2Findex");
+
+        JsonNode storage = restClient.get("/nodes/self").at("/storage/hdd/0");
+
+        Assert.assertEquals("/mnt/data", storage.path("path").asText());
+        Assert.assertEquals("/mnt/index", storage.path("index_path").asText());
+    }
+
+    @Test
+    public void should_return_injected_failure_code() throws Exception {
+        server.failNext("/settings/indexes", 1, 400);
+
+        Assert.assertEquals(400, restClient.post("/settings/indexes", "storageMode=memory_optimized"));
+        Assert.assertEquals(200, restClient.post("/settings/indexes", "storageMode=memory_optimized"));
+    }
+
+    @Test
+    public void should_honor_injected_delay() throws Exception {
+        server.withDelay("/settings/web", Duration.ofMillis(200));
+
+        long start = System.nanoTime();
+        restClient.post("/settings/web", "username=Administrator&password=password&port=8091");
+
+        Assert.assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() >= 200);
+    }
+}
@@ -0,0 +1,164 @@
+package org.testcontainers.couchbase;
+
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.query.N1qlParams;
+import com.couchbase.client.java.query.N1qlQuery;
+import com.couchbase.client.java.query.N1qlQueryResult;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.*;
+
+public class N1qlStatementCacheTest {
+
+    private static final String STATEMENT = "SELECT name FROM `test` USE KEYS $1";
+
+    private static final String OTHER_STATEMENT = "SELECT age FROM `test` USE KEYS $1";
+
+    private final List<N1qlQuery> queries = new ArrayList<>();
+
+    /**
+     * Error codes returned by the next EXECUTE statements
+     */
+    private final Deque<Integer> executeErrors = new ArrayDeque<>();
+
+    /**
+     * Run while the next PREPARE statement is in flight, to simulate a concurrent caller
+     */
+    private Runnable concurrentPrepare;
+
+    private final Bucket bucket = (Bucket) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{Bucket.class},
+            (proxy, method, args) -> {
+                if (method.getName().equals("query") && args.length == 1 && args[0] instanceof N1qlQuery) {
+                    N1qlQuery query = (N1qlQuery) args[0];
+                    queries.add(query);
+                    if (statement(query).startsWith("PREPARE") && concurrentPrepare != null) {
+                        Runnable prepare = concurrentPrepare;
+                        concurrentPrepare = null;
+                        prepare.run();
+                    }
+                    Integer error = statement(query).startsWith("EXECUTE") ? executeErrors.poll() : null;
+                    return result(error);
+                }
+                if (method.getName().equals("name")) {
+                    return "test";
+                }
+                throw new UnsupportedOperationException(method.getName());
+            });
+
+    @Test
+    public void should_prepare_statement_once() {
+        N1qlStatementCache cache = new N1qlStatementCache(N1qlStatementCache.DEFAULT_SIZE);
+
+        cache.query(bucket, STATEMENT, JsonArray.from("toto"), N1qlParams.build());
+        cache.query(bucket, STATEMENT, JsonArray.from("tata"), N1qlParams.build());
+
+        String name = preparedName(0);
+        Assert.assertEquals(Arrays.asList("PREPARE " + name + " FROM " + STATEMENT, "EXECUTE " + name, "EXECUTE " + name),
+                statements());
+        Assert.assertEquals(JsonArray.from("tata"), queries.get(2).n1ql().getArray("args"));
+    }
+
+    @Test
+    public void should_prepare_stale_statement_again() {
+        N1qlStatementCache cache = new N1qlStatementCache(N1qlStatementCache.DEFAULT_SIZE);
+        executeErrors.add(4050);
+
+        N1qlQueryResult result = cache.query(bucket, STATEMENT, JsonArray.from("toto"), N1qlParams.build());
+
+        Assert.assertTrue(result.finalSuccess());
+        String staleName = preparedName(0);
+        String name = preparedName(3);
+        Assert.assertNotEquals(staleName, name);
+        Assert.assertEquals(Arrays.asList(
+                "PREPARE " + staleName + " FROM " + STATEMENT,
+                "EXECUTE " + staleName,
+                "DELETE FROM system:prepareds WHERE name = $1",
+                "PREPARE " + name + " FROM " + STATEMENT,
+                "EXECUTE " + name), statements());
+        Assert.assertEquals(JsonArray.from(staleName), queries.get(2).n1ql().getArray("args"));
+        Assert.assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void should_delete_evicted_statement() {
+        N1qlStatementCache cache = new N1qlStatementCache(1);
+
+        cache.query(bucket, STATEMENT, JsonArray.from("toto"), N1qlParams.build());
+        cache.query(bucket, OTHER_STATEMENT, JsonArray.from("toto"), N1qlParams.build());
+
+        String evictedName = preparedName(0);
+        Assert.assertEquals(Arrays.asList(
+                "PREPARE " + evictedName + " FROM " + STATEMENT,
+                "EXECUTE " + evictedName,
+                "PREPARE " + preparedName(2) + " FROM " + OTHER_STATEMENT,
+                "DELETE FROM system:prepareds WHERE name = $1",
+                "EXECUTE " + preparedName(2)), statements());
+        Assert.assertEquals(JsonArray.from(evictedName), queries.get(3).n1ql().getArray("args"));
+        Assert.assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void should_keep_statement_prepared_concurrently() {
+        N1qlStatementCache cache = new N1qlStatementCache(N1qlStatementCache.DEFAULT_SIZE);
+        concurrentPrepare = () -> cache.prepare(bucket, STATEMENT);
+
+        String name = cache.prepare(bucket, STATEMENT);
+
+        String duplicateName = preparedName(0);
+        Assert.assertEquals(preparedName(1), name);
+        Assert.assertEquals(Arrays.asList(
+                "PREPARE " + duplicateName + " FROM " + STATEMENT,
+                "PREPARE " + name + " FROM " + STATEMENT,
+                "DELETE FROM system:prepareds WHERE name = $1"), statements());
+        Assert.assertEquals(JsonArray.from(duplicateName), queries.get(2).n1ql().getArray("args"));
+        Assert.assertEquals(1, cache.size());
+        Assert.assertEquals(name, cache.prepare(bucket, STATEMENT));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_reject_non_positive_size() {
+        new N1qlStatementCache(0);
+    }
+
+    private List<String> statements() {
+        List<String> statements = new ArrayList<>();
+        for (N1qlQuery query : queries) {
+            statements.add(statement(query));
+        }
+        return statements;
+    }
+
+    /**
+     * @return the name of the statement prepared by the query at the given index
+     */
+    private String preparedName(int index) {
+        return statement(queries.get(index)).split(" ")[1];
+    }
+
+    private static String statement(N1qlQuery query) {
+        return query.statement().toString();
+    }
+
+    private static N1qlQueryResult result(Integer errorCode) {
+        List<JsonObject> errors = errorCode == null
+                ? Collections.emptyList()
+                : Collections.singletonList(JsonObject.create().put("code", errorCode).put("msg", "stale plan"));
+        return (N1qlQueryResult) Proxy.newProxyInstance(N1qlStatementCacheTest.class.getClassLoader(),
+                new Class[]{N1qlQueryResult.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "finalSuccess":
+                        case "parseSuccess":
+                            return errors.isEmpty();
+                        case "errors":
+                            return errors;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
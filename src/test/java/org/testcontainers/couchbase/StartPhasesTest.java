@@ -0,0 +1,94 @@
+package org.testcontainers.couchbase;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletionException;
+
+public class StartPhasesTest {
+
+    private final StartPhases phases = new StartPhases();
+
+    @Test
+    public void should_complete_phases_in_order() {
+        phases.run(phases.getContainerStarted(), () -> {
+        });
+
+        Assert.assertTrue(phases.getContainerStarted().isDone());
+        Assert.assertFalse(phases.getClusterInitialized().isDone());
+
+        phases.run(phases.getClusterInitialized(), () -> {
+        });
+        phases.run(phases.getBucketsCreated(), () -> {
+        });
+        phases.run(phases.getWarmedUp(), () -> {
+        });
+
+        Assert.assertNull(phases.getWarmedUp().join());
+    }
+
+    @Test
+    public void should_fail_following_phases_only() {
+        IllegalStateException failure = new IllegalStateException("bucket creation failed");
+        phases.run(phases.getContainerStarted(), () -> {
+        });
+        phases.run(phases.getClusterInitialized(), () -> {
+        });
+
+        try {
+            phases.run(phases.getBucketsCreated(), () -> {
+                throw failure;
+            });
+            Assert.fail("Phase failure should be rethrown");
+        } catch (IllegalStateException e) {
+            Assert.assertSame(failure, e);
+        }
+
+        Assert.assertFalse(phases.getContainerStarted().isCompletedExceptionally());
+        Assert.assertFalse(phases.getClusterInitialized().isCompletedExceptionally());
+        Assert.assertTrue(phases.getBucketsCreated().isCompletedExceptionally());
+        try {
+            phases.getWarmedUp().join();
+            Assert.fail("Following phases should fail");
+        } catch (CompletionException e) {
+            Assert.assertSame(failure, e.getCause());
+        }
+    }
+
+    @Test
+    public void should_fail_phases_on_sneaky_thrown_checked_exception() {
+        IOException failure = new IOException("REST API unreachable");
+
+        try {
+            phases.run(phases.getContainerStarted(), () -> StartPhasesTest.<RuntimeException>sneakyThrow(failure));
+            Assert.fail("Phase failure should be rethrown");
+        } catch (Exception e) {
+            Assert.assertSame(failure, e);
+        }
+
+        Assert.assertTrue(phases.getContainerStarted().isCompletedExceptionally());
+        try {
+            phases.getWarmedUp().join();
+            Assert.fail("Following phases should fail");
+        } catch (CompletionException e) {
+            Assert.assertSame(failure, e.getCause());
+        }
+    }
+
+    @Test
+    public void should_begin_once() {
+        phases.begin();
+        try {
+            phases.begin();
+            Assert.fail("Second start should be rejected");
+        } catch (IllegalStateException e) {
+            Assert.assertTrue(e.getMessage().contains("already started"));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends Throwable> void sneakyThrow(Throwable throwable) throws T {
+        throw (T) throwable;
+    }
+}